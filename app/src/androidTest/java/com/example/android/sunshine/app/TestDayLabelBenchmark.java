@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+/*
+    Compares the per call cost of the cached day labels with the code they replaced, which
+    created a Time and a SimpleDateFormat on every call, over the days of the forecast list.
+    The numbers go to the log; the test only fails if both give different labels.
+ */
+public class TestDayLabelBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestDayLabelBenchmark.class.getSimpleName();
+
+    private static final int NUM_DAYS = 14;
+    private static final int NUM_ROUNDS = 500;
+
+    public void testFriendlyDayStringCost() {
+        long[] dates = new long[NUM_DAYS];
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < NUM_DAYS; i++) {
+            dates[i] = WeatherContract.normalizeDate(now + i * 24L * 60 * 60 * 1000);
+        }
+
+        // The replaced code used today's offset for every day, so it is only right for the days
+        // with the same offset as today.
+        TimeZone timeZone = TimeZone.getDefault();
+        for (int i = 0; i < NUM_DAYS; i++) {
+            if (timeZone.getOffset(dates[i]) == timeZone.getOffset(now)) {
+                assertEquals("Error: labels differ for day " + i,
+                        legacyFriendlyDayString(mContext, dates[i], i == 0),
+                        Utility.getFriendlyDayString(mContext, dates[i], i == 0));
+            }
+        }
+
+        long start = SystemClock.elapsedRealtimeNanos();
+        for (int round = 0; round < NUM_ROUNDS; round++) {
+            for (int i = 0; i < NUM_DAYS; i++) {
+                legacyFriendlyDayString(mContext, dates[i], i == 0);
+            }
+        }
+        long legacyNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        start = SystemClock.elapsedRealtimeNanos();
+        for (int round = 0; round < NUM_ROUNDS; round++) {
+            for (int i = 0; i < NUM_DAYS; i++) {
+                Utility.getFriendlyDayString(mContext, dates[i], i == 0);
+            }
+        }
+        long cachedNanos = SystemClock.elapsedRealtimeNanos() - start;
+
+        int calls = NUM_ROUNDS * NUM_DAYS;
+        Log.i(LOG_TAG, String.format("uncached: %d ns/call, cached: %d ns/call (%.1fx)",
+                legacyNanos / calls, cachedNanos / calls,
+                (double) legacyNanos / Math.max(1, cachedNanos)));
+    }
+
+    // Utility.getFriendlyDayString and getDayName as they were before the cache.
+    private static String legacyFriendlyDayString(Context context, long dateInMillis,
+                                                  boolean displayLongToday) {
+        Time time = new Time();
+        time.setToNow();
+        long currentTime = System.currentTimeMillis();
+        int julianDay = Time.getJulianDay(dateInMillis, time.gmtoff);
+        int currentJulianDay = Time.getJulianDay(currentTime, time.gmtoff);
+
+        if (displayLongToday && julianDay == currentJulianDay) {
+            String today = context.getString(R.string.today);
+            int formatId = R.string.format_full_friendly_date;
+            return String.format(context.getString(
+                    formatId,
+                    today,
+                    new SimpleDateFormat("MMMM dd").format(dateInMillis)));
+        } else if (julianDay < currentJulianDay + 7) {
+            return legacyDayName(context, dateInMillis);
+        } else {
+            SimpleDateFormat shortenedDateFormat = new SimpleDateFormat("EEE MMM dd");
+            return shortenedDateFormat.format(dateInMillis);
+        }
+    }
+
+    private static String legacyDayName(Context context, long dateInMillis) {
+        Time t = new Time();
+        t.setToNow();
+        int julianDay = Time.getJulianDay(dateInMillis, t.gmtoff);
+        int currentJulianDay = Time.getJulianDay(System.currentTimeMillis(), t.gmtoff);
+        if (julianDay == currentJulianDay) {
+            return context.getString(R.string.today);
+        } else if (julianDay == currentJulianDay + 1) {
+            return context.getString(R.string.tomorrow);
+        } else {
+            SimpleDateFormat dayFormat = new SimpleDateFormat("EEEE");
+            return dayFormat.format(dateInMillis);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+public class TestWeatherConditions extends AndroidTestCase {
+
+    public void testRangeBoundaries() {
+        assertEquals(-1, Utility.getIconResourceForWeatherCondition(199));
+        assertEquals(R.drawable.ic_storm, Utility.getIconResourceForWeatherCondition(200));
+        assertEquals(R.drawable.ic_storm, Utility.getIconResourceForWeatherCondition(232));
+        assertEquals(-1, Utility.getIconResourceForWeatherCondition(233));
+        assertEquals(R.drawable.art_snow, Utility.getArtResourceForWeatherCondition(511));
+        assertEquals(-1, Utility.getArtResourceForWeatherCondition(510));
+        // 761 falls in the fog range, 781 is a storm.
+        assertEquals(R.drawable.art_fog, Utility.getArtResourceForWeatherCondition(761));
+        assertEquals(R.drawable.art_storm, Utility.getArtResourceForWeatherCondition(781));
+        assertEquals(R.drawable.ic_cloudy, Utility.getIconResourceForWeatherCondition(804));
+        assertEquals(-1, Utility.getIconResourceForWeatherCondition(805));
+        assertEquals(-1, Utility.getIconResourceForWeatherCondition(-1));
+        assertEquals(-1, Utility.getIconResourceForWeatherCondition(100000));
+        assertNull(Utility.getImageUrlForWeatherCondition(900));
+    }
+
+    public void testStrings() {
+        assertEquals(mContext.getString(R.string.condition_3xx),
+                Utility.getStringForWeatherCondition(mContext, 310));
+        assertEquals(mContext.getString(R.string.condition_962),
+                Utility.getStringForWeatherCondition(mContext, 962));
+        assertEquals(mContext.getString(R.string.condition_unknown, 963),
+                Utility.getStringForWeatherCondition(mContext, 963));
+    }
+
+    public void testArtUrlsFollowArtPack() {
+        SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(mContext);
+        String artPackKey = mContext.getString(R.string.pref_art_pack_key);
+        String sunshine = mContext.getString(R.string.pref_art_pack_sunshine);
+        String cuteDogs = mContext.getString(R.string.pref_art_pack_cute_dogs);
+        String previous = prefs.getString(artPackKey, sunshine);
+        try {
+            prefs.edit().putString(artPackKey, sunshine).commit();
+            // Preference listeners are called on the main thread, so the cached pack is only
+            // dropped some time after the commit.
+            new PollingCheck(5000) {
+                @Override
+                protected boolean check() {
+                    return Utility.usingLocalGraphics(mContext);
+                }
+            }.run();
+            assertEquals(String.format(sunshine, "light_clouds"),
+                    Utility.getArtUrlForWeatherCondition(mContext, 801));
+
+            prefs.edit().putString(artPackKey, cuteDogs).commit();
+            new PollingCheck(5000) {
+                @Override
+                protected boolean check() {
+                    return !Utility.usingLocalGraphics(mContext);
+                }
+            }.run();
+            assertEquals(String.format(cuteDogs, "light_clouds"),
+                    Utility.getArtUrlForWeatherCondition(mContext, 801));
+            assertNull(Utility.getArtUrlForWeatherCondition(mContext, 900));
+        } finally {
+            prefs.edit().putString(artPackKey, previous).commit();
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Compares the rows/sec of the bulk write path with the one it replaced, which called
+    db.insert() and the allocating normalizeDate() for every row.  The upserter is also timed
+    writing the same rows a second time, the steady state of a sync, and writing them with one
+    value changed, which updates every row.  The numbers go to the log; the test only fails if a
+    path doesn't write every row, or writes a row that didn't change.
+ */
+public class TestBulkInsertBenchmark extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestBulkInsertBenchmark.class.getSimpleName();
+
+    private static final int NUM_LOCATIONS = 50;
+    private static final int NUM_DAYS = 14;
+    private static final int NUM_ROUNDS = 5;
+
+    private SQLiteDatabase mDb;
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mLocationRowId = TestUtilities.insertNorthPoleLocationValues(mContext);
+        mDb = new WeatherDbHelper(mContext).getWritableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    public void testBulkInsertThroughput() {
+        // Warm up both paths so the first round doesn't pay for class loading and the page cache.
+        writeLegacy(createRows());
+        writeUpserter(createRows());
+
+        long legacyMillis = 0;
+        long upserterMillis = 0;
+        long unchangedMillis = 0;
+        long changedMillis = 0;
+        for (int round = 0; round < NUM_ROUNDS; round++) {
+            ContentValues[] rows = createRows();
+            clearWeather();
+            long start = SystemClock.elapsedRealtime();
+            writeLegacy(rows);
+            legacyMillis += SystemClock.elapsedRealtime() - start;
+            assertEquals("Error: legacy path didn't write every row", rows.length, countWeather());
+
+            rows = createRows();
+            clearWeather();
+            start = SystemClock.elapsedRealtime();
+            writeUpserter(rows);
+            upserterMillis += SystemClock.elapsedRealtime() - start;
+            assertEquals("Error: upserter didn't write every row", rows.length, countWeather());
+
+            rows = createRows();
+            start = SystemClock.elapsedRealtime();
+            int written = writeUpserter(rows);
+            unchangedMillis += SystemClock.elapsedRealtime() - start;
+            assertEquals("Error: upserter wrote unchanged rows", 0, written);
+
+            rows = createRows();
+            for (ContentValues value : rows) {
+                value.put(WeatherEntry.COLUMN_MAX_TEMP, 76);
+            }
+            start = SystemClock.elapsedRealtime();
+            written = writeUpserter(rows);
+            changedMillis += SystemClock.elapsedRealtime() - start;
+            assertEquals("Error: upserter didn't update every row", rows.length, written);
+        }
+
+        int totalRows = NUM_ROUNDS * NUM_LOCATIONS * NUM_DAYS;
+        double legacyRate = rowsPerSecond(totalRows, legacyMillis);
+        double upserterRate = rowsPerSecond(totalRows, upserterMillis);
+        Log.i(LOG_TAG, String.format("db.insert: %.0f rows/sec, upserter: %.0f rows/sec (%.2fx)",
+                legacyRate, upserterRate, upserterRate / legacyRate));
+        Log.i(LOG_TAG, String.format(
+                "upserter again, unchanged: %.0f rows/sec, changed: %.0f rows/sec",
+                rowsPerSecond(totalRows, unchangedMillis),
+                rowsPerSecond(totalRows, changedMillis)));
+    }
+
+    private void writeLegacy(ContentValues[] rows) {
+        mDb.beginTransaction();
+        try {
+            for (ContentValues value : rows) {
+                long date = value.getAsLong(WeatherEntry.COLUMN_DATE);
+                value.put(WeatherEntry.COLUMN_DATE, WeatherContract.normalizeDate(date));
+                mDb.insert(WeatherEntry.TABLE_NAME, null, value);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            mDb.endTransaction();
+        }
+    }
+
+    // Returns the number of rows inserted or updated.
+    private int writeUpserter(ContentValues[] rows) {
+        WeatherUpserter upserter = new WeatherUpserter(mDb);
+        mDb.beginTransaction();
+        try {
+            for (ContentValues value : rows) {
+                upserter.upsert(value);
+            }
+            mDb.setTransactionSuccessful();
+        } finally {
+            upserter.close();
+            mDb.endTransaction();
+        }
+        return upserter.getWrittenCount();
+    }
+
+    // Every row uses the same location row, so the locations are spread over distinct dates.
+    private ContentValues[] createRows() {
+        long millisecondsInADay = 1000 * 60 * 60 * 24;
+        ContentValues[] rows = new ContentValues[NUM_LOCATIONS * NUM_DAYS];
+        for (int i = 0; i < rows.length; i++) {
+            ContentValues weatherValues = new ContentValues();
+            weatherValues.put(WeatherEntry.COLUMN_LOC_KEY, mLocationRowId);
+            weatherValues.put(WeatherEntry.COLUMN_DATE,
+                    TestUtilities.TEST_DATE + i * millisecondsInADay);
+            weatherValues.put(WeatherEntry.COLUMN_DEGREES, 1.1);
+            weatherValues.put(WeatherEntry.COLUMN_HUMIDITY, 1.2);
+            weatherValues.put(WeatherEntry.COLUMN_PRESSURE, 1.3);
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, 75);
+            weatherValues.put(WeatherEntry.COLUMN_MIN_TEMP, 65);
+            weatherValues.put(WeatherEntry.COLUMN_SHORT_DESC, "Asteroids");
+            weatherValues.put(WeatherEntry.COLUMN_WIND_SPEED, 5.5);
+            weatherValues.put(WeatherEntry.COLUMN_WEATHER_ID, 321);
+            rows[i] = weatherValues;
+        }
+        return rows;
+    }
+
+    private void clearWeather() {
+        mDb.delete(WeatherEntry.TABLE_NAME, null, null);
+    }
+
+    private long countWeather() {
+        return DatabaseUtils.queryNumEntries(mDb, WeatherEntry.TABLE_NAME);
+    }
+
+    private static double rowsPerSecond(int rows, long millis) {
+        return rows * 1000.0 / Math.max(1, millis);
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/*
+    Measures how long provider reads take while a bulk sync is writing, the way the forecast
+    list, the widgets and Muzei read while the sync adapter stores a forecast.  The latencies go
+    to the log; the test fails if the database isn't in WAL mode or a read saw a partial forecast.
+ */
+public class TestDbConcurrency extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestDbConcurrency.class.getSimpleName();
+
+    private static final int NUM_ROWS = 50 * 14;
+    private static final int NUM_SYNCS = 20;
+
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        ContentResolver resolver = mContext.getContentResolver();
+        resolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        resolver.delete(LocationEntry.CONTENT_URI, null, null);
+        Uri locationUri = resolver.insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        mLocationRowId = ContentUris.parseId(locationUri);
+        assertTrue(mLocationRowId != -1);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        ContentResolver resolver = mContext.getContentResolver();
+        resolver.delete(WeatherEntry.CONTENT_URI, null, null);
+        resolver.delete(LocationEntry.CONTENT_URI, null, null);
+        super.tearDown();
+    }
+
+    public void testJournalModeIsWal() {
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        assertEquals("Error: The database isn't in write-ahead logging mode",
+                "wal", DatabaseUtils.stringForQuery(db, "PRAGMA journal_mode", null).toLowerCase());
+        db.close();
+    }
+
+    public void testReaderLatencyDuringBulkSync() throws InterruptedException {
+        final ContentResolver resolver = mContext.getContentResolver();
+        // Start with a stored forecast, like a periodic sync does.
+        resolver.bulkInsert(WeatherEntry.CONTENT_URI, createRows(0));
+
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                // Every sync changes every row, so each one rewrites the whole forecast.
+                for (int sync = 1; sync <= NUM_SYNCS; sync++) {
+                    resolver.bulkInsert(WeatherEntry.CONTENT_URI, createRows(sync));
+                }
+            }
+        });
+
+        Uri forecastUri = WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION);
+        ArrayList<Long> latencies = new ArrayList<Long>();
+        long writeStart = SystemClock.elapsedRealtime();
+        writer.start();
+        // At least one read is taken, even if the writer is done before the first check.
+        do {
+            long start = System.nanoTime();
+            Cursor cursor = resolver.query(forecastUri, null, null, null,
+                    WeatherEntry.COLUMN_DATE + " ASC");
+            try {
+                assertEquals("Error: A reader saw a partial forecast",
+                        NUM_ROWS, cursor.getCount());
+            } finally {
+                cursor.close();
+            }
+            latencies.add(System.nanoTime() - start);
+        } while (writer.isAlive());
+        writer.join();
+        long writeMillis = SystemClock.elapsedRealtime() - writeStart;
+
+        Collections.sort(latencies);
+        Log.i(LOG_TAG, String.format("%d syncs of %d rows in %d ms; %d reads, median %.2f ms, "
+                        + "p95 %.2f ms, max %.2f ms",
+                NUM_SYNCS, NUM_ROWS, writeMillis, latencies.size(),
+                toMillis(latencies.get(latencies.size() / 2)),
+                toMillis(latencies.get(latencies.size() * 95 / 100)),
+                toMillis(latencies.get(latencies.size() - 1))));
+    }
+
+    private ContentValues[] createRows(int sync) {
+        long millisecondsInADay = 1000 * 60 * 60 * 24;
+        ContentValues[] rows = new ContentValues[NUM_ROWS];
+        for (int i = 0; i < NUM_ROWS; i++) {
+            ContentValues weatherValues = TestUtilities.createWeatherValues(mLocationRowId);
+            weatherValues.put(WeatherEntry.COLUMN_DATE,
+                    TestUtilities.TEST_DATE + i * millisecondsInADay);
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, 75 + sync);
+            rows[i] = weatherValues;
+        }
+        return rows;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
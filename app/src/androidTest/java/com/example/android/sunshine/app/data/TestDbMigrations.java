@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.HashSet;
+
+/*
+    Tests each step of WeatherDbHelper.MIGRATIONS on a database built with the oldest schema that
+    can still be migrated, and checks that a full upgrade keeps the rows and ends up with the
+    same schema as a freshly created database.
+ */
+public class TestDbMigrations extends AndroidTestCase {
+
+    // The schema of version 2, frozen here since WeatherDbHelper only knows the current one.
+    private static final String SQL_CREATE_LOCATION_TABLE_V2 = "CREATE TABLE location (" +
+            "_id INTEGER PRIMARY KEY," +
+            "location_setting TEXT UNIQUE NOT NULL, " +
+            "city_name TEXT NOT NULL, " +
+            "coord_lat REAL NOT NULL, " +
+            "coord_long REAL NOT NULL );";
+
+    private static final String SQL_CREATE_WEATHER_TABLE_V2 = "CREATE TABLE weather (" +
+            "_id INTEGER PRIMARY KEY AUTOINCREMENT," +
+            "location_id INTEGER NOT NULL, " +
+            "date INTEGER NOT NULL, " +
+            "short_desc TEXT NOT NULL, " +
+            "weather_id INTEGER NOT NULL," +
+            "min REAL NOT NULL, " +
+            "max REAL NOT NULL, " +
+            "humidity REAL NOT NULL, " +
+            "pressure REAL NOT NULL, " +
+            "wind REAL NOT NULL, " +
+            "degrees REAL NOT NULL, " +
+            " FOREIGN KEY (location_id) REFERENCES location (_id), " +
+            " UNIQUE (date, location_id) ON CONFLICT REPLACE);";
+
+    private static final int OLDEST_VERSION = 2;
+
+    public void setUp() {
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+    }
+
+    public void testMigrationsAreContiguous() {
+        assertEquals("Error: The first migration doesn't start at the oldest tested version",
+                OLDEST_VERSION, WeatherDbHelper.MIGRATIONS[0].mFromVersion);
+        for (int i = 0; i < WeatherDbHelper.MIGRATIONS.length; i++) {
+            assertEquals("Error: Migration " + i + " is out of order",
+                    OLDEST_VERSION + i, WeatherDbHelper.MIGRATIONS[i].mFromVersion);
+        }
+        assertEquals("Error: The last migration doesn't reach DATABASE_VERSION",
+                WeatherDbHelper.DATABASE_VERSION,
+                OLDEST_VERSION + WeatherDbHelper.MIGRATIONS.length);
+    }
+
+    public void testMigration2To3() {
+        SQLiteDatabase db = openDatabaseAtVersion(3);
+
+        HashSet<String> columns = getColumns(db, LocationEntry.TABLE_NAME);
+        assertTrue("Error: etag wasn't added", columns.contains(LocationEntry.COLUMN_ETAG));
+        assertTrue("Error: last_modified wasn't added",
+                columns.contains(LocationEntry.COLUMN_LAST_MODIFIED));
+        assertTrue("Error: expires wasn't added", columns.contains(LocationEntry.COLUMN_EXPIRES));
+
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME, null, null, null, null, null, null);
+        TestUtilities.validateCursor("Error: The location didn't survive the migration",
+                cursor, TestUtilities.createNorthPoleLocationValues());
+        assertEquals("Error: expires doesn't default to 0", 0, DatabaseUtils.longForQuery(db,
+                "SELECT " + LocationEntry.COLUMN_EXPIRES + " FROM " + LocationEntry.TABLE_NAME,
+                null));
+        assertWeatherSurvived(db);
+        db.close();
+    }
+
+    public void testMigration3To4() {
+        SQLiteDatabase db = openDatabaseAtVersion(4);
+
+        assertTrue("Error: The location/date index wasn't created",
+                getIndexes(db, WeatherEntry.TABLE_NAME)
+                        .contains(WeatherDbHelper.WEATHER_LOCATION_DATE_INDEX));
+        assertWeatherSurvived(db);
+        db.close();
+    }
+
+    public void testUpgradeKeepsForecasts() {
+        createDatabaseAtOldestVersion().close();
+
+        SQLiteDatabase db = new WeatherDbHelper(mContext).getReadableDatabase();
+        assertEquals(WeatherDbHelper.DATABASE_VERSION, db.getVersion());
+        assertWeatherSurvived(db);
+        HashSet<String> upgradedLocationColumns = getColumns(db, LocationEntry.TABLE_NAME);
+        HashSet<String> upgradedWeatherColumns = getColumns(db, WeatherEntry.TABLE_NAME);
+        HashSet<String> upgradedIndexes = getIndexes(db, WeatherEntry.TABLE_NAME);
+        db.close();
+
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        db = new WeatherDbHelper(mContext).getReadableDatabase();
+        assertEquals("Error: Upgraded location table differs from a new one",
+                getColumns(db, LocationEntry.TABLE_NAME), upgradedLocationColumns);
+        assertEquals("Error: Upgraded weather table differs from a new one",
+                getColumns(db, WeatherEntry.TABLE_NAME), upgradedWeatherColumns);
+        assertEquals("Error: Upgraded weather indexes differ from a new database's",
+                getIndexes(db, WeatherEntry.TABLE_NAME), upgradedIndexes);
+        db.close();
+    }
+
+    // Builds a database at the oldest version and runs the migrations up to the given version.
+    private SQLiteDatabase openDatabaseAtVersion(int version) {
+        SQLiteDatabase db = createDatabaseAtOldestVersion();
+        for (WeatherDbHelper.Migration migration : WeatherDbHelper.MIGRATIONS) {
+            if (migration.mFromVersion < version) {
+                migration.migrate(db);
+            }
+        }
+        db.setVersion(version);
+        return db;
+    }
+
+    private SQLiteDatabase createDatabaseAtOldestVersion() {
+        SQLiteDatabase db = mContext.openOrCreateDatabase(WeatherDbHelper.DATABASE_NAME,
+                Context.MODE_PRIVATE, null);
+        db.execSQL(SQL_CREATE_LOCATION_TABLE_V2);
+        db.execSQL(SQL_CREATE_WEATHER_TABLE_V2);
+        db.setVersion(OLDEST_VERSION);
+
+        long locationRowId = db.insert(LocationEntry.TABLE_NAME, null,
+                TestUtilities.createNorthPoleLocationValues());
+        assertTrue("Error: Failure to insert North Pole Location Values", locationRowId != -1);
+        long weatherRowId = db.insert(WeatherEntry.TABLE_NAME, null,
+                TestUtilities.createWeatherValues(locationRowId));
+        assertTrue("Error: Failure to insert Weather Values", weatherRowId != -1);
+        return db;
+    }
+
+    private void assertWeatherSurvived(SQLiteDatabase db) {
+        Cursor cursor = db.query(LocationEntry.TABLE_NAME, new String[]{LocationEntry._ID},
+                null, null, null, null, null);
+        assertTrue("Error: The location didn't survive the migration", cursor.moveToFirst());
+        long locationRowId = cursor.getLong(0);
+        cursor.close();
+
+        cursor = db.query(WeatherEntry.TABLE_NAME, null, null, null, null, null, null);
+        TestUtilities.validateCursor("Error: The forecast didn't survive the migration",
+                cursor, TestUtilities.createWeatherValues(locationRowId));
+        assertEquals(1, DatabaseUtils.queryNumEntries(db, WeatherEntry.TABLE_NAME));
+    }
+
+    private static HashSet<String> getColumns(SQLiteDatabase db, String table) {
+        HashSet<String> columns = new HashSet<String>();
+        Cursor cursor = db.rawQuery("PRAGMA table_info(" + table + ")", null);
+        int columnNameIndex = cursor.getColumnIndex("name");
+        while (cursor.moveToNext()) {
+            columns.add(cursor.getString(columnNameIndex));
+        }
+        cursor.close();
+        return columns;
+    }
+
+    private static HashSet<String> getIndexes(SQLiteDatabase db, String table) {
+        HashSet<String> indexes = new HashSet<String>();
+        Cursor cursor = db.rawQuery(
+                "SELECT name FROM sqlite_master WHERE type = 'index' AND tbl_name = ?",
+                new String[]{table});
+        while (cursor.moveToNext()) {
+            indexes.add(cursor.getString(0));
+        }
+        cursor.close();
+        return indexes;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.net.Uri;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+public class TestForecastSnapshot extends AndroidTestCase {
+
+    private long mLocationRowId;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.getContentResolver().delete(WeatherEntry.CONTENT_URI, null, null);
+        mContext.getContentResolver().delete(LocationEntry.CONTENT_URI, null, null);
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        mLocationRowId = ContentUris.parseId(locationUri);
+        assertTrue(mLocationRowId != -1);
+    }
+
+    /*
+        The snapshot should hold the stored rows in date order, be reused while nothing changes,
+        and be replaced once the provider writes to its location.
+     */
+    public void testSnapshotFollowsProviderWrites() {
+        ContentValues[] weatherValues = TestProvider.createBulkInsertWeatherValues(mLocationRowId);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weatherValues);
+
+        ForecastSnapshot snapshot = ForecastSnapshot.get(mContext, TestUtilities.TEST_LOCATION);
+        assertNotNull(snapshot);
+        assertEquals(weatherValues.length, snapshot.size());
+        for (int i = 0; i < weatherValues.length; i++) {
+            assertEquals(weatherValues[i].getAsLong(WeatherEntry.COLUMN_DATE).longValue(),
+                    snapshot.getDate(i));
+            assertEquals(weatherValues[i].getAsDouble(WeatherEntry.COLUMN_MAX_TEMP),
+                    snapshot.getHigh(i), 0.0);
+            assertEquals(weatherValues[i].getAsDouble(WeatherEntry.COLUMN_MIN_TEMP),
+                    snapshot.getLow(i), 0.0);
+            assertEquals(weatherValues[i].getAsInteger(WeatherEntry.COLUMN_WEATHER_ID).intValue(),
+                    snapshot.getWeatherId(i));
+            assertEquals(weatherValues[i].getAsString(WeatherEntry.COLUMN_SHORT_DESC),
+                    snapshot.getDescription(i));
+        }
+        assertSame("Error: The snapshot wasn't cached",
+                snapshot, ForecastSnapshot.get(mContext, TestUtilities.TEST_LOCATION));
+
+        long secondDay = snapshot.getDate(1);
+        assertEquals(1, snapshot.indexOfDay(secondDay));
+        assertEquals(1, snapshot.indexOfFirstDayFrom(secondDay - 1));
+        assertEquals(-1, snapshot.indexOfFirstDayFrom(snapshot.getDate(snapshot.size() - 1) + 1));
+
+        weatherValues = TestProvider.createBulkInsertWeatherValues(mLocationRowId);
+        weatherValues[1].put(WeatherEntry.COLUMN_MAX_TEMP, 99);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI, weatherValues);
+
+        ForecastSnapshot updated = ForecastSnapshot.get(mContext, TestUtilities.TEST_LOCATION);
+        assertNotSame("Error: The snapshot wasn't invalidated by the write", snapshot, updated);
+        assertEquals(99.0, updated.getHigh(1), 0.0);
+    }
+}
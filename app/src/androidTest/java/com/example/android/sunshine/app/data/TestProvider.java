@@ -16,8 +16,11 @@
 package com.example.android.sunshine.app.data;
 
 import android.content.ComponentName;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.pm.PackageManager;
 import android.content.pm.ProviderInfo;
 import android.database.Cursor;
@@ -30,6 +33,8 @@ import android.util.Log;
 import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
 import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
 
+import java.util.ArrayList;
+
 /*
     Note: This is not a complete set of tests of the Sunshine ContentProvider, but it does test
     that at least the basic functionality has been implemented correctly.
@@ -512,4 +517,220 @@ public class TestProvider extends AndroidTestCase {
         }
         cursor.close();
     }
+
+    /*
+        Writing the same forecast twice through weather/<location>/<date> should leave every row
+        alone the second time, and changing a single day should update that row in place.
+     */
+    public void testUpsertWeather() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        assertTrue(locationRowId != -1);
+
+        ContentValues[] weatherValues = createBulkInsertWeatherValues(locationRowId);
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, writeDays(weatherValues));
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry._ID}, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertTrue(cursor.moveToFirst());
+        long firstRowId = cursor.getLong(0);
+        cursor.close();
+
+        // The same forecast again writes nothing.
+        assertEquals(0, writeDays(createBulkInsertWeatherValues(locationRowId)));
+
+        // The URI names the row, so a selection is refused, and the caller's values are kept.
+        ContentValues dayValues = TestUtilities.createWeatherValues(locationRowId);
+        dayValues.remove(WeatherEntry.COLUMN_LOC_KEY);
+        Uri dayUri = WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                TestUtilities.TEST_DATE);
+        try {
+            mContext.getContentResolver().update(dayUri, dayValues,
+                    WeatherEntry.COLUMN_DATE + " = ?", new String[]{"0"});
+            fail("Error: An update of weather/<location>/<date> with a selection should fail");
+        } catch (IllegalArgumentException expected) {
+        }
+        mContext.getContentResolver().update(dayUri, dayValues, null, null);
+        assertFalse("Error: The update changed the caller's values",
+                dayValues.containsKey(WeatherEntry.COLUMN_LOC_KEY));
+
+        // Only the changed day is written, and it keeps its _id.
+        weatherValues = createBulkInsertWeatherValues(locationRowId);
+        weatherValues[0].put(WeatherEntry.COLUMN_MAX_TEMP, 99);
+        assertEquals(1, writeDays(weatherValues));
+
+        cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT, cursor.getCount());
+        assertTrue(cursor.moveToFirst());
+        assertEquals(firstRowId, cursor.getLong(cursor.getColumnIndex(WeatherEntry._ID)));
+        TestUtilities.validateCurrentRecord("testUpsertWeather. Error validating updated row",
+                cursor, weatherValues[0]);
+        cursor.close();
+    }
+
+    /*
+        Weather writes should only notify the observers of the locations they touch.
+     */
+    public void testWeatherNotificationsAreScopedToLocation() {
+        ContentValues testValues = TestUtilities.createNorthPoleLocationValues();
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI, testValues);
+        long locationRowId = ContentUris.parseId(locationUri);
+        assertTrue(locationRowId != -1);
+
+        TestUtilities.TestContentObserver northPoleObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION), true,
+                northPoleObserver);
+        TestUtilities.TestContentObserver otherObserver = TestUtilities.getTestContentObserver();
+        mContext.getContentResolver().registerContentObserver(
+                WeatherEntry.buildWeatherLocation("94043"), true, otherObserver);
+
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+
+        // Notifications are sent before bulkInsert returns, so by the time the North Pole one
+        // has been delivered the other location would have had its own.
+        northPoleObserver.waitForNotificationOrFail();
+        mContext.getContentResolver().unregisterContentObserver(northPoleObserver);
+        mContext.getContentResolver().unregisterContentObserver(otherObserver);
+        otherObserver.mHT.quit();
+        assertFalse("Error: Another location's observer was notified",
+                otherObserver.mContentChanged);
+    }
+
+    /*
+        A batch like the sync's should be committed as a whole: the location, the forecast rows
+        written through weather/<location>/<date>, and the cleanup.  Running it again should
+        report every row as unchanged.
+     */
+    public void testApplyBatch() throws Exception {
+        ArrayList<ContentProviderOperation> operations = buildSyncBatch();
+        ContentProviderResult[] results = mContext.getContentResolver().applyBatch(
+                WeatherContract.CONTENT_AUTHORITY, operations);
+        assertEquals(operations.size(), results.length);
+        for (int i = 1; i <= BULK_INSERT_RECORDS_TO_INSERT; i++) {
+            assertEquals("Error: Weather row " + i + " wasn't written", 1, (int) results[i].count);
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(TestUtilities.TEST_LOCATION),
+                null, null, null, WeatherEntry.COLUMN_DATE + " ASC");
+        assertEquals(BULK_INSERT_RECORDS_TO_INSERT - 1, cursor.getCount());
+        cursor.close();
+
+        // The second time the location exists, so the batch starts with the weather rows.
+        operations = buildSyncBatch();
+        operations.remove(0);
+        results = mContext.getContentResolver().applyBatch(
+                WeatherContract.CONTENT_AUTHORITY, operations);
+        // The first day was deleted by the last batch, so only that one is written again.
+        assertEquals("Error: Deleted weather row wasn't written", 1, (int) results[0].count);
+        for (int i = 1; i < BULK_INSERT_RECORDS_TO_INSERT; i++) {
+            assertEquals("Error: Unchanged weather row " + i + " was written",
+                    0, (int) results[i].count);
+        }
+    }
+
+    /*
+        If an operation fails, nothing the batch did before it should be kept.
+     */
+    public void testApplyBatchRollsBack() throws Exception {
+        ArrayList<ContentProviderOperation> operations = buildSyncBatch();
+        operations.add(ContentProviderOperation
+                .newUpdate(WeatherEntry.buildWeatherLocationWithDate("unknown location",
+                        TestUtilities.TEST_DATE))
+                .withValues(TestUtilities.createWeatherValues(0))
+                .build());
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            fail("Error: A batch writing to an unknown location should fail");
+        } catch (OperationApplicationException expected) {
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(
+                LocationEntry.CONTENT_URI, null, null, null, null);
+        assertEquals("Error: The failed batch's location was kept", 0, cursor.getCount());
+        cursor.close();
+    }
+
+    /*
+        A batch that fails after operations allowing a yield should leave the stored forecast,
+        and the snapshot cached from it, as they were.  Nothing may be committed before the
+        batch's notifications can be sent.
+     */
+    public void testApplyBatchFailsAfterYieldPoint() throws Exception {
+        Uri locationUri = mContext.getContentResolver().insert(LocationEntry.CONTENT_URI,
+                TestUtilities.createNorthPoleLocationValues());
+        long locationRowId = ContentUris.parseId(locationUri);
+        mContext.getContentResolver().bulkInsert(WeatherEntry.CONTENT_URI,
+                createBulkInsertWeatherValues(locationRowId));
+        ForecastSnapshot snapshot = ForecastSnapshot.get(mContext, TestUtilities.TEST_LOCATION);
+        double high = snapshot.getHigh(0);
+
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        for (ContentValues weatherValues : createBulkInsertWeatherValues(locationRowId)) {
+            weatherValues.put(WeatherEntry.COLUMN_MAX_TEMP, 99);
+            operations.add(ContentProviderOperation
+                    .newUpdate(WeatherEntry.buildWeatherLocationWithDate(
+                            TestUtilities.TEST_LOCATION,
+                            weatherValues.getAsLong(WeatherEntry.COLUMN_DATE)))
+                    .withValues(weatherValues)
+                    .withYieldAllowed(true)
+                    .build());
+        }
+        operations.add(ContentProviderOperation.newDelete(WeatherEntry.CONTENT_URI)
+                .withSelection("0", null)
+                .withExpectedCount(1)
+                .build());
+        try {
+            mContext.getContentResolver().applyBatch(WeatherContract.CONTENT_AUTHORITY, operations);
+            fail("Error: A batch with a failing operation should fail");
+        } catch (OperationApplicationException expected) {
+        }
+
+        Cursor cursor = mContext.getContentResolver().query(WeatherEntry.CONTENT_URI,
+                new String[]{WeatherEntry.COLUMN_MAX_TEMP},
+                WeatherEntry.COLUMN_MAX_TEMP + " = 99", null, null);
+        assertEquals("Error: The failed batch's rows were kept", 0, cursor.getCount());
+        cursor.close();
+        assertEquals("Error: The snapshot doesn't match the stored forecast",
+                high, ForecastSnapshot.get(mContext, TestUtilities.TEST_LOCATION).getHigh(0));
+    }
+
+    // Inserts the North Pole, writes its forecast, then deletes the first day.
+    private ArrayList<ContentProviderOperation> buildSyncBatch() {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        operations.add(ContentProviderOperation.newInsert(LocationEntry.CONTENT_URI)
+                .withValues(TestUtilities.createNorthPoleLocationValues())
+                .build());
+        for (ContentValues weatherValues : createBulkInsertWeatherValues(0)) {
+            long date = weatherValues.getAsLong(WeatherEntry.COLUMN_DATE);
+            weatherValues.remove(WeatherEntry.COLUMN_LOC_KEY);
+            operations.add(ContentProviderOperation
+                    .newUpdate(WeatherEntry.buildWeatherLocationWithDate(
+                            TestUtilities.TEST_LOCATION, date))
+                    .withValues(weatherValues)
+                    .build());
+        }
+        operations.add(ContentProviderOperation.newDelete(WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherEntry.COLUMN_DATE + " <= ?",
+                        new String[]{Long.toString(
+                                WeatherContract.normalizeDate(TestUtilities.TEST_DATE))})
+                .build());
+        return operations;
+    }
+
+    // Writes each day through weather/<location>/<date>, as the sync does, and returns how many
+    // rows were inserted or changed.
+    private int writeDays(ContentValues[] values) {
+        int written = 0;
+        for (ContentValues weatherValues : values) {
+            Uri uri = WeatherEntry.buildWeatherLocationWithDate(TestUtilities.TEST_LOCATION,
+                    weatherValues.getAsLong(WeatherEntry.COLUMN_DATE));
+            written += mContext.getContentResolver().update(uri, weatherValues, null, null);
+        }
+        return written;
+    }
 }
@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.test.AndroidTestCase;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract.LocationEntry;
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+/*
+    Runs EXPLAIN QUERY PLAN on the queries behind every provider URI, with the selections the app
+    actually uses, and fails if any step of a plan scans a whole table instead of searching an
+    index.  The one query meant to read a whole table, the sync's list of saved locations, is
+    checked to scan only that table.
+ */
+public class TestQueryPlans extends AndroidTestCase {
+
+    public static final String LOG_TAG = TestQueryPlans.class.getSimpleName();
+
+    // The plan's "detail" column, which reads like "SEARCH TABLE weather USING INDEX ...".
+    private static final int COL_DETAIL = 3;
+
+    private static final String SORT_BY_DATE = WeatherEntry.COLUMN_DATE + " ASC";
+
+    private SQLiteDatabase mDb;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        mContext.deleteDatabase(WeatherDbHelper.DATABASE_NAME);
+        mDb = new WeatherDbHelper(mContext).getReadableDatabase();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDb.close();
+        super.tearDown();
+    }
+
+    // "weather/*"
+    public void testWeatherWithLocationPlan() {
+        assertNoFullScan("weather/*", buildJoinQuery(WeatherProvider.sLocationSettingSelection),
+                TestUtilities.TEST_LOCATION);
+    }
+
+    // "weather/*?date=" as used by the forecast list
+    public void testWeatherWithLocationAndStartDatePlan() {
+        assertNoFullScan("weather/*?date=",
+                buildJoinQuery(WeatherProvider.sLocationSettingWithStartDateSelection),
+                TestUtilities.TEST_LOCATION, Long.toString(TestUtilities.TEST_DATE));
+    }
+
+    // "weather/*/#"
+    public void testWeatherWithLocationAndDatePlan() {
+        assertNoFullScan("weather/*/#",
+                buildJoinQuery(WeatherProvider.sLocationSettingAndDaySelection),
+                TestUtilities.TEST_LOCATION, Long.toString(TestUtilities.TEST_DATE));
+    }
+
+    // "weather", with the selections of the upsert lookup and of the sync's cleanup delete
+    public void testWeatherPlans() {
+        assertNoFullScan("weather by location and date",
+                SQLiteQueryBuilder.buildQueryString(false, WeatherEntry.TABLE_NAME, null,
+                        WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " = ?",
+                        null, null, null, null),
+                "1", Long.toString(TestUtilities.TEST_DATE));
+        assertNoFullScan("weather before date",
+                SQLiteQueryBuilder.buildQueryString(false, WeatherEntry.TABLE_NAME, null,
+                        WeatherEntry.COLUMN_DATE + " <= ?", null, null, null, null),
+                Long.toString(TestUtilities.TEST_DATE));
+    }
+
+    // "location", with the selection the sync adapter looks locations up with
+    public void testLocationPlan() {
+        assertNoFullScan("location",
+                SQLiteQueryBuilder.buildQueryString(false, LocationEntry.TABLE_NAME, null,
+                        LocationEntry.COLUMN_LOCATION_SETTING + " = ?", null, null, null, null),
+                TestUtilities.TEST_LOCATION);
+    }
+
+    // "location" with no selection, as the sync lists the saved locations.  It reads every row
+    // by design, so the scan is expected; it must still be the only step, with no temporary
+    // b-tree for sorting or a join pulled in.
+    public void testSavedLocationsPlan() {
+        String sql = SQLiteQueryBuilder.buildQueryString(false, LocationEntry.TABLE_NAME,
+                new String[]{LocationEntry.COLUMN_LOCATION_SETTING}, null, null, null, null, null);
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+        try {
+            assertEquals("Error: The saved locations query has more than one step",
+                    1, cursor.getCount());
+            cursor.moveToFirst();
+            String detail = cursor.getString(COL_DETAIL);
+            Log.d(LOG_TAG, "saved locations: " + detail);
+            assertTrue("Error: The saved locations query doesn't scan the location table: "
+                    + detail,
+                    detail.startsWith("SCAN") && detail.contains(LocationEntry.TABLE_NAME));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static String buildJoinQuery(String selection) {
+        return WeatherProvider.sWeatherByLocationSettingQueryBuilder.buildQuery(
+                null, selection, null, null, SORT_BY_DATE, null);
+    }
+
+    private void assertNoFullScan(String name, String sql, String... selectionArgs) {
+        Cursor cursor = mDb.rawQuery("EXPLAIN QUERY PLAN " + sql, selectionArgs);
+        try {
+            assertTrue("Error: No query plan for " + name, cursor.moveToFirst());
+            do {
+                String detail = cursor.getString(COL_DETAIL);
+                Log.d(LOG_TAG, name + ": " + detail);
+                assertFalse("Error: " + name + " scans a whole table: " + detail,
+                        detail.startsWith("SCAN"));
+            } while (cursor.moveToNext());
+        } finally {
+            cursor.close();
+        }
+    }
+}
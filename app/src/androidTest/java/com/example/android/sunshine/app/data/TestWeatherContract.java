@@ -18,6 +18,8 @@ package com.example.android.sunshine.app.data;
 import android.net.Uri;
 import android.test.AndroidTestCase;
 
+import java.util.TimeZone;
+
 /*
     Students: This is NOT a complete test for the WeatherContract --- just for the functions
     that we expect you to write.
@@ -42,4 +44,29 @@ public class TestWeatherContract extends AndroidTestCase {
                 locationUri.toString(),
                 "content://com.example.android.sunshine.app/weather/%2FNorth%20Pole");
     }
+
+    /*
+        The allocation-free normalizeDate must agree with the original one, including across
+        daylight saving changes and for dates before the epoch.
+     */
+    public void testNormalizeDateWithTimeZone() {
+        TimeZone timeZone = TimeZone.getDefault();
+        long hour = 60 * 60 * 1000;
+        long[] dates = {
+                0L,
+                -hour,
+                TEST_WEATHER_DATE,
+                TEST_WEATHER_DATE * 1000,
+                1457836200000L,  // March 13th, 2016, around the US spring forward
+                1478395800000L,  // November 6th, 2016, around the US fall back
+                System.currentTimeMillis()
+        };
+        for (long date : dates) {
+            for (long delta = 0; delta < 24 * hour; delta += hour) {
+                assertEquals("Error: normalizeDate differs for " + (date + delta),
+                        WeatherContract.normalizeDate(date + delta),
+                        WeatherContract.normalizeDate(date + delta, timeZone));
+            }
+        }
+    }
 }
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.sync;
+
+import android.accounts.Account;
+import android.content.ContentResolver;
+import android.content.PeriodicSync;
+import android.test.AndroidTestCase;
+
+import com.example.android.sunshine.app.R;
+import com.example.android.sunshine.app.utils.PollingCheck;
+
+import java.util.List;
+
+public class TestPeriodicSync extends AndroidTestCase {
+
+    /*
+        The periodic sync is the one that refreshes every stored location, and it replaces the
+        one without extras that earlier versions scheduled.
+     */
+    public void testPeriodicSyncCoversAllLocations() {
+        SunshineSyncAdapter.initializeSyncAdapter(mContext);
+        final Account account = SunshineSyncAdapter.getSyncAccount(mContext);
+        assertNotNull("Error: No sync account", account);
+        final String authority = mContext.getString(R.string.content_authority);
+
+        // The sync manager applies periodic sync changes asynchronously.
+        new PollingCheck(5000) {
+            @Override
+            protected boolean check() {
+                List<PeriodicSync> syncs = ContentResolver.getPeriodicSyncs(account, authority);
+                return syncs.size() == 1 && syncs.get(0).extras.getBoolean(
+                        SunshineSyncAdapter.SYNC_EXTRAS_ALL_LOCATIONS, false);
+            }
+        }.run();
+    }
+}
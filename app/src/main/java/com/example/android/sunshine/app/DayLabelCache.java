@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.text.format.Time;
+import android.util.SparseArray;
+
+import java.text.SimpleDateFormat;
+import java.util.TimeZone;
+
+/**
+ * The day labels behind the friendly date helpers of {@link Utility}, cached by Julian day.
+ * Labels are relative to today ("Today", "Tomorrow", day names for the coming week), so the cache
+ * is cleared when the day changes, and when the time zone or the locale does, along with the
+ * formatters.  A list binding the same days over and over then formats each of them once.
+ */
+class DayLabelCache {
+
+    private static DayLabelCache sInstance;
+
+    private final Context mContext;
+
+    // Guarded by this.  Null when the time zone or the locale changed and everything depending
+    // on them has to be set up again.
+    private TimeZone mTimeZone;
+    private SimpleDateFormat mDayNameFormat;
+    private SimpleDateFormat mMonthDayFormat;
+    private SimpleDateFormat mShortDateFormat;
+    private String mToday;
+    private String mTomorrow;
+    private int mTodayJulianDay;
+
+    // Guarded by this; all keyed by Julian day.
+    private final SparseArray<String> mDayNames = new SparseArray<String>();
+    private final SparseArray<String> mMonthDays = new SparseArray<String>();
+    private final SparseArray<String> mFriendlyDays = new SparseArray<String>();
+    private final SparseArray<String> mFullFriendlyDays = new SparseArray<String>();
+    private String mLongToday;
+
+    static synchronized DayLabelCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new DayLabelCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private DayLabelCache(Context context) {
+        mContext = context;
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+        filter.addAction(Intent.ACTION_LOCALE_CHANGED);
+        context.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                synchronized (DayLabelCache.this) {
+                    mTimeZone = null;
+                }
+            }
+        }, filter);
+    }
+
+    /**
+     * @see Utility#getFriendlyDayString(Context, long, boolean)
+     */
+    synchronized String getFriendlyDayString(long dateInMillis, boolean displayLongToday) {
+        int julianDay = update(dateInMillis);
+        if (displayLongToday && julianDay == mTodayJulianDay) {
+            if (mLongToday == null) {
+                mLongToday = mContext.getString(R.string.format_full_friendly_date,
+                        mToday, getFormattedMonthDay(julianDay, dateInMillis));
+            }
+            return mLongToday;
+        }
+        String label = mFriendlyDays.get(julianDay);
+        if (label == null) {
+            if (julianDay < mTodayJulianDay + 7) {
+                label = getDayName(julianDay, dateInMillis);
+            } else {
+                label = mShortDateFormat.format(dateInMillis);
+            }
+            mFriendlyDays.put(julianDay, label);
+        }
+        return label;
+    }
+
+    /**
+     * @see Utility#getFullFriendlyDayString(Context, long)
+     */
+    synchronized String getFullFriendlyDayString(long dateInMillis) {
+        int julianDay = update(dateInMillis);
+        String label = mFullFriendlyDays.get(julianDay);
+        if (label == null) {
+            label = mContext.getString(R.string.format_full_friendly_date,
+                    getDayName(julianDay, dateInMillis),
+                    getFormattedMonthDay(julianDay, dateInMillis));
+            mFullFriendlyDays.put(julianDay, label);
+        }
+        return label;
+    }
+
+    /**
+     * @see Utility#getDayName(Context, long)
+     */
+    synchronized String getDayName(long dateInMillis) {
+        return getDayName(update(dateInMillis), dateInMillis);
+    }
+
+    /**
+     * @see Utility#getFormattedMonthDay(Context, long)
+     */
+    synchronized String getFormattedMonthDay(long dateInMillis) {
+        return getFormattedMonthDay(update(dateInMillis), dateInMillis);
+    }
+
+    private String getDayName(int julianDay, long dateInMillis) {
+        if (julianDay == mTodayJulianDay) {
+            return mToday;
+        } else if (julianDay == mTodayJulianDay + 1) {
+            return mTomorrow;
+        }
+        String label = mDayNames.get(julianDay);
+        if (label == null) {
+            label = mDayNameFormat.format(dateInMillis);
+            mDayNames.put(julianDay, label);
+        }
+        return label;
+    }
+
+    private String getFormattedMonthDay(int julianDay, long dateInMillis) {
+        String label = mMonthDays.get(julianDay);
+        if (label == null) {
+            label = mMonthDayFormat.format(dateInMillis);
+            mMonthDays.put(julianDay, label);
+        }
+        return label;
+    }
+
+    /**
+     * Drops whatever went stale since the last call.
+     *
+     * @return the Julian day of the date.
+     */
+    private int update(long dateInMillis) {
+        if (mTimeZone == null) {
+            // The formatters pick up the default time zone and locale when created.
+            mTimeZone = TimeZone.getDefault();
+            mDayNameFormat = new SimpleDateFormat("EEEE");
+            mMonthDayFormat = new SimpleDateFormat("MMMM dd");
+            mShortDateFormat = new SimpleDateFormat("EEE MMM dd");
+            mToday = mContext.getString(R.string.today);
+            mTomorrow = mContext.getString(R.string.tomorrow);
+            mTodayJulianDay = 0;
+        }
+        int todayJulianDay = getJulianDay(System.currentTimeMillis());
+        if (todayJulianDay != mTodayJulianDay) {
+            mTodayJulianDay = todayJulianDay;
+            mDayNames.clear();
+            mMonthDays.clear();
+            mFriendlyDays.clear();
+            mFullFriendlyDays.clear();
+            mLongToday = null;
+        }
+        return getJulianDay(dateInMillis);
+    }
+
+    private int getJulianDay(long millis) {
+        // Each date with its own offset, so days across a daylight saving change keep their day.
+        return Time.getJulianDay(millis, mTimeZone.getOffset(millis) / 1000);
+    }
+}
@@ -16,7 +16,6 @@
 package com.example.android.sunshine.app;
 
 import android.content.Context;
-import android.database.Cursor;
 import android.os.Build;
 import android.os.Bundle;
 import android.support.v4.view.ViewCompat;
@@ -30,11 +29,10 @@ import android.widget.ImageView;
 import android.widget.TextView;
 
 import com.bumptech.glide.Glide;
-import com.example.android.sunshine.app.data.WeatherContract;
 
 /**
  * {@link ForecastAdapter} exposes a list of weather forecasts
- * from a {@link android.database.Cursor} to a {@link android.support.v7.widget.RecyclerView}.
+ * from {@link ForecastRow}s to a {@link android.support.v7.widget.RecyclerView}.
  */
 public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.ForecastAdapterViewHolder> {
 
@@ -44,7 +42,7 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
     // Flag to determine if we want to use a separate view for "today".
     private boolean mUseTodayLayout = true;
 
-    private Cursor mCursor;
+    private ForecastRow[] mRows;
     final private Context mContext;
     final private ForecastAdapterOnClickHandler mClickHandler;
     final private View mEmptyView;
@@ -73,9 +71,7 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         @Override
         public void onClick(View v) {
             int adapterPosition = getAdapterPosition();
-            mCursor.moveToPosition(adapterPosition);
-            int dateColumnIndex = mCursor.getColumnIndex(WeatherContract.WeatherEntry.COLUMN_DATE);
-            mClickHandler.onClick(mCursor.getLong(dateColumnIndex), this);
+            mClickHandler.onClick(mRows[adapterPosition].mDate, this);
             mICM.onClick(this);
         }
     }
@@ -88,6 +84,8 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         mContext = context;
         mClickHandler = dh;
         mEmptyView = emptyView;
+        // Must be set before the ItemChoiceManager registers its observer.
+        setHasStableIds(true);
         mICM = new ItemChoiceManager(this);
         mICM.setChoiceMode(choiceMode);
     }
@@ -124,63 +122,37 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
 
     @Override
     public void onBindViewHolder(ForecastAdapterViewHolder forecastAdapterViewHolder, int position) {
-        mCursor.moveToPosition(position);
-        int weatherId = mCursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
-        int defaultImage;
-        boolean useLongToday;
-
-        switch (getItemViewType(position)) {
-            case VIEW_TYPE_TODAY:
-                defaultImage = Utility.getArtResourceForWeatherCondition(weatherId);
-                useLongToday = true;
-                break;
-            default:
-                defaultImage = Utility.getIconResourceForWeatherCondition(weatherId);
-                useLongToday = false;
-        }
+        // Everything was formatted by the loader, so binding only sets the views.
+        ForecastRow row = mRows[position];
+        boolean today = getItemViewType(position) == VIEW_TYPE_TODAY;
+        int defaultImage = today ? row.mArtResourceId : row.mIconResourceId;
 
-        if ( Utility.usingLocalGraphics(mContext) ) {
+        if ( row.mArtUrl == null ) {
             forecastAdapterViewHolder.mIconView.setImageResource(defaultImage);
         } else {
             Glide.with(mContext)
-                    .load(Utility.getArtUrlForWeatherCondition(mContext, weatherId))
+                    .load(row.mArtUrl)
                     .error(defaultImage)
                     .crossFade()
                     .into(forecastAdapterViewHolder.mIconView);
         }
 
-        // this enables better animations. even if we lose state due to a device rotation,
-        // the animator can use this to re-find the original view
-        ViewCompat.setTransitionName(forecastAdapterViewHolder.mIconView, "iconView" + position);
-
-        // Read date from cursor
-        long dateInMillis = mCursor.getLong(ForecastFragment.COL_WEATHER_DATE);
-
-        // Find TextView and set formatted date on it
-        forecastAdapterViewHolder.mDateView.setText(Utility.getFriendlyDayString(mContext, dateInMillis, useLongToday));
+        ViewCompat.setTransitionName(forecastAdapterViewHolder.mIconView, row.mTransitionName);
 
-        // Read weather forecast from cursor
-        String description = Utility.getStringForWeatherCondition(mContext, weatherId);
+        forecastAdapterViewHolder.mDateView.setText(today ? row.mLongDay : row.mDay);
 
-        // Find TextView and set weather forecast on it
-        forecastAdapterViewHolder.mDescriptionView.setText(description);
-        forecastAdapterViewHolder.mDescriptionView.setContentDescription(mContext.getString(R.string.a11y_forecast, description));
+        forecastAdapterViewHolder.mDescriptionView.setText(row.mDescription);
+        forecastAdapterViewHolder.mDescriptionView.setContentDescription(row.mDescriptionA11y);
 
         // For accessibility, we don't want a content description for the icon field
         // because the information is repeated in the description view and the icon
         // is not individually selectable
 
-        // Read high temperature from cursor
-        double high = mCursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP);
-        String highString = Utility.formatTemperature(mContext, high);
-        forecastAdapterViewHolder.mHighTempView.setText(highString);
-        forecastAdapterViewHolder.mHighTempView.setContentDescription(mContext.getString(R.string.a11y_high_temp, highString));
+        forecastAdapterViewHolder.mHighTempView.setText(row.mHigh);
+        forecastAdapterViewHolder.mHighTempView.setContentDescription(row.mHighA11y);
 
-        // Read low temperature from cursor
-        double low = mCursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP);
-        String lowString = Utility.formatTemperature(mContext, low);
-        forecastAdapterViewHolder.mLowTempView.setText(lowString);
-        forecastAdapterViewHolder.mLowTempView.setContentDescription(mContext.getString(R.string.a11y_low_temp, lowString));
+        forecastAdapterViewHolder.mLowTempView.setText(row.mLow);
+        forecastAdapterViewHolder.mLowTempView.setContentDescription(row.mLowA11y);
 
         mICM.onBindViewHolder(forecastAdapterViewHolder, position);
     }
@@ -206,20 +178,93 @@ public class ForecastAdapter extends RecyclerView.Adapter<ForecastAdapter.Foreca
         return (position == 0 && mUseTodayLayout) ? VIEW_TYPE_TODAY : VIEW_TYPE_FUTURE_DAY;
     }
 
+    @Override
+    public long getItemId(int position) {
+        // A location has one row per day.
+        return mRows[position].mDate;
+    }
+
     @Override
     public int getItemCount() {
-        if ( null == mCursor ) return 0;
-        return mCursor.getCount();
+        if ( null == mRows ) return 0;
+        return mRows.length;
     }
 
-    public void swapCursor(Cursor newCursor) {
-        mCursor = newCursor;
-        notifyDataSetChanged();
+    /**
+     * Replaces the rows, notifying only the rows that were added, removed or changed rather than
+     * rebinding every row.  Rows are matched by date, which is also their id, so a sync that
+     * changes one day rebinds one row, and the day rolling over removes the first row instead of
+     * changing all of them.  Both lists must be sorted by date, as the loader sorts them.
+     */
+    public void swapRows(ForecastRow[] newRows) {
+        ForecastRow[] oldRows = mRows;
+        mRows = newRows;
+        int oldCount = oldRows == null ? 0 : oldRows.length;
+        int newCount = newRows == null ? 0 : newRows.length;
+
+        if (oldCount == 0) {
+            // Nothing is bound yet, so this costs nothing, and it lets the ItemChoiceManager
+            // match selections restored from a saved state against the new ids.
+            notifyDataSetChanged();
+            mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
+            return;
+        }
+
+        // Walk both lists in date order, notifying runs of removed, added and changed rows at
+        // their position in the list as updated so far.
+        int oldIndex = 0;
+        int newIndex = 0;
+        int position = 0;
+        while (oldIndex < oldCount || newIndex < newCount) {
+            int count = 0;
+            if (newIndex == newCount || (oldIndex < oldCount
+                    && oldRows[oldIndex].mDate < newRows[newIndex].mDate)) {
+                while (oldIndex < oldCount && (newIndex == newCount
+                        || oldRows[oldIndex].mDate < newRows[newIndex].mDate)) {
+                    oldIndex++;
+                    count++;
+                }
+                notifyItemRangeRemoved(position, count);
+            } else if (oldIndex == oldCount
+                    || newRows[newIndex].mDate < oldRows[oldIndex].mDate) {
+                while (newIndex < newCount && (oldIndex == oldCount
+                        || newRows[newIndex].mDate < oldRows[oldIndex].mDate)) {
+                    newIndex++;
+                    count++;
+                }
+                notifyItemRangeInserted(position, count);
+                position += count;
+            } else if (needsRebind(oldRows, oldIndex, newRows, newIndex)) {
+                while (oldIndex < oldCount && newIndex < newCount
+                        && oldRows[oldIndex].mDate == newRows[newIndex].mDate
+                        && needsRebind(oldRows, oldIndex, newRows, newIndex)) {
+                    oldIndex++;
+                    newIndex++;
+                    count++;
+                }
+                notifyItemRangeChanged(position, count);
+                position += count;
+            } else {
+                oldIndex++;
+                newIndex++;
+                position++;
+            }
+        }
         mEmptyView.setVisibility(getItemCount() == 0 ? View.VISIBLE : View.GONE);
     }
 
-    public Cursor getCursor() {
-        return mCursor;
+    /**
+     * A row of the same day needs binding again when it shows something else, or when it moves
+     * in or out of the "today" layout.
+     */
+    private boolean needsRebind(ForecastRow[] oldRows, int oldIndex,
+                                ForecastRow[] newRows, int newIndex) {
+        return !oldRows[oldIndex].equals(newRows[newIndex])
+                || (mUseTodayLayout && (oldIndex == 0) != (newIndex == 0));
+    }
+
+    public ForecastRow getRow(int position) {
+        return mRows[position];
     }
 
     public void selectView(RecyclerView.ViewHolder viewHolder) {
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.v4.content.AsyncTaskLoader;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+/**
+ * Loads the forecast list as {@link ForecastRow}s: the query, and all the formatting and lookups
+ * the rows need, run on the loader's background thread instead of in every bind.
+ *
+ * Like a CursorLoader it loads again when the weather changes.  Changes of units or art pack are
+ * notified on the weather URI too, so the rows are reformatted for those as well.  The day
+ * labels are relative to today, so it also loads again when the date, the time or the time zone
+ * changes.
+ */
+class ForecastLoader extends AsyncTaskLoader<ForecastRow[]> {
+
+    private final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+    private final BroadcastReceiver mDateReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            onContentChanged();
+        }
+    };
+    private final Uri mUri;
+    private final String mSortOrder;
+
+    private ForecastRow[] mRows;
+    private boolean mObserving;
+
+    ForecastLoader(Context context, Uri uri, String sortOrder) {
+        super(context);
+        mUri = uri;
+        mSortOrder = sortOrder;
+    }
+
+    @Override
+    public ForecastRow[] loadInBackground() {
+        Context context = getContext();
+        Cursor cursor = context.getContentResolver().query(mUri,
+                ForecastFragment.FORECAST_COLUMNS, null, null, mSortOrder);
+        if (cursor == null) {
+            return new ForecastRow[0];
+        }
+        try {
+            boolean localGraphics = Utility.usingLocalGraphics(context);
+            ForecastRow[] rows = new ForecastRow[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                long date = cursor.getLong(ForecastFragment.COL_WEATHER_DATE);
+                int weatherId = cursor.getInt(ForecastFragment.COL_WEATHER_CONDITION_ID);
+                String description = Utility.getStringForWeatherCondition(context, weatherId);
+                String high = Utility.formatTemperature(context,
+                        cursor.getDouble(ForecastFragment.COL_WEATHER_MAX_TEMP));
+                String low = Utility.formatTemperature(context,
+                        cursor.getDouble(ForecastFragment.COL_WEATHER_MIN_TEMP));
+                rows[i] = new ForecastRow(date,
+                        Utility.getIconResourceForWeatherCondition(weatherId),
+                        Utility.getArtResourceForWeatherCondition(weatherId),
+                        localGraphics
+                                ? null : Utility.getArtUrlForWeatherCondition(context, weatherId),
+                        // This enables better animations.  Even if we lose state due to a device
+                        // rotation, the animator can use this to re-find the original view.
+                        "iconView" + date,
+                        Utility.getFriendlyDayString(context, date, false),
+                        Utility.getFriendlyDayString(context, date, true),
+                        description,
+                        context.getString(R.string.a11y_forecast, description),
+                        high,
+                        context.getString(R.string.a11y_high_temp, high),
+                        low,
+                        context.getString(R.string.a11y_low_temp, low),
+                        cursor.getString(ForecastFragment.COL_COORD_LAT),
+                        cursor.getString(ForecastFragment.COL_COORD_LONG));
+            }
+            return rows;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public void deliverResult(ForecastRow[] rows) {
+        if (isReset()) {
+            return;
+        }
+        mRows = rows;
+        if (isStarted()) {
+            super.deliverResult(rows);
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mObserving) {
+            // The provider notifies the weather/<location> URIs, below this one.
+            getContext().getContentResolver().registerContentObserver(
+                    WeatherContract.WeatherEntry.CONTENT_URI, true, mObserver);
+            IntentFilter filter = new IntentFilter();
+            filter.addAction(Intent.ACTION_DATE_CHANGED);
+            filter.addAction(Intent.ACTION_TIME_CHANGED);
+            filter.addAction(Intent.ACTION_TIMEZONE_CHANGED);
+            getContext().registerReceiver(mDateReceiver, filter);
+            mObserving = true;
+        }
+        if (mRows != null) {
+            deliverResult(mRows);
+        }
+        if (takeContentChanged() || mRows == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+        onStopLoading();
+        mRows = null;
+        if (mObserving) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            getContext().unregisterReceiver(mDateReceiver);
+            mObserving = false;
+        }
+    }
+}
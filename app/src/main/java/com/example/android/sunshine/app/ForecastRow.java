@@ -0,0 +1,107 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.text.TextUtils;
+
+/**
+ * One day of the forecast list, with everything {@link ForecastAdapter} shows already formatted
+ * and resolved by {@link ForecastLoader}, so binding a row is only setting its views.
+ */
+final class ForecastRow {
+    final long mDate;
+    // Icon for the regular layout, art for the "today" one.
+    final int mIconResourceId;
+    final int mArtResourceId;
+    // Null when the art pack is the bundled one.
+    final String mArtUrl;
+    final String mTransitionName;
+    // Label for the regular layout, and the longer one for the "today" layout.
+    final String mDay;
+    final String mLongDay;
+    final String mDescription;
+    final String mDescriptionA11y;
+    final String mHigh;
+    final String mHighA11y;
+    final String mLow;
+    final String mLowA11y;
+    final String mCoordLat;
+    final String mCoordLong;
+
+    ForecastRow(long date, int iconResourceId, int artResourceId, String artUrl,
+                String transitionName, String day, String longDay,
+                String description, String descriptionA11y, String high, String highA11y,
+                String low, String lowA11y, String coordLat, String coordLong) {
+        mDate = date;
+        mIconResourceId = iconResourceId;
+        mArtResourceId = artResourceId;
+        mArtUrl = artUrl;
+        mTransitionName = transitionName;
+        mDay = day;
+        mLongDay = longDay;
+        mDescription = description;
+        mDescriptionA11y = descriptionA11y;
+        mHigh = high;
+        mHighA11y = highA11y;
+        mLow = low;
+        mLowA11y = lowA11y;
+        mCoordLat = coordLat;
+        mCoordLong = coordLong;
+    }
+
+    /**
+     * Rows are equal when they show the same thing, so a row only needs binding again when it
+     * isn't equal to the one it replaces.
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ForecastRow)) {
+            return false;
+        }
+        ForecastRow other = (ForecastRow) o;
+        return mDate == other.mDate
+                && mIconResourceId == other.mIconResourceId
+                && mArtResourceId == other.mArtResourceId
+                && TextUtils.equals(mArtUrl, other.mArtUrl)
+                && TextUtils.equals(mTransitionName, other.mTransitionName)
+                && TextUtils.equals(mDay, other.mDay)
+                && TextUtils.equals(mLongDay, other.mLongDay)
+                && TextUtils.equals(mDescription, other.mDescription)
+                && TextUtils.equals(mDescriptionA11y, other.mDescriptionA11y)
+                && TextUtils.equals(mHigh, other.mHigh)
+                && TextUtils.equals(mHighA11y, other.mHighA11y)
+                && TextUtils.equals(mLow, other.mLow)
+                && TextUtils.equals(mLowA11y, other.mLowA11y)
+                && TextUtils.equals(mCoordLat, other.mCoordLat)
+                && TextUtils.equals(mCoordLong, other.mCoordLong);
+    }
+
+    @Override
+    public int hashCode() {
+        int result = (int) (mDate ^ (mDate >>> 32));
+        result = 31 * result + mIconResourceId;
+        result = 31 * result + mArtResourceId;
+        result = 31 * result + (mArtUrl != null ? mArtUrl.hashCode() : 0);
+        result = 31 * result + (mDay != null ? mDay.hashCode() : 0);
+        result = 31 * result + (mDescription != null ? mDescription.hashCode() : 0);
+        result = 31 * result + (mHigh != null ? mHigh.hashCode() : 0);
+        result = 31 * result + (mLow != null ? mLow.hashCode() : 0);
+        return result;
+    }
+}
@@ -28,8 +28,9 @@ import android.widget.AbsListView;
 import android.widget.Checkable;
 
 /**
- * The ItemChoiceManager class keeps track of which positions have been selected.  Note that it
- * doesn't take advantage of new adapter features to track changes in the underlying data.
+ * The ItemChoiceManager class keeps track of which positions have been selected.  Rows added,
+ * removed or moved through the adapter's item range notifications carry their checked state
+ * along; only a full data set change makes it search for the checked ids again.
  */
 public class ItemChoiceManager {
     private final String LOG_TAG = MainActivity.class.getSimpleName();
@@ -44,6 +45,40 @@ public class ItemChoiceManager {
             if (mAdapter != null && mAdapter.hasStableIds())
                 confirmCheckedPositionsById(mAdapter.getItemCount());
         }
+
+        @Override
+        public void onItemRangeInserted(int positionStart, int itemCount) {
+            offsetCheckedPositions(positionStart, itemCount);
+        }
+
+        @Override
+        public void onItemRangeRemoved(int positionStart, int itemCount) {
+            uncheckPositions(positionStart, itemCount);
+            offsetCheckedPositions(positionStart + itemCount, -itemCount);
+        }
+
+        @Override
+        public void onItemRangeMoved(int fromPosition, int toPosition, int itemCount) {
+            // RecyclerView only moves one item at a time.
+            boolean checked = mCheckStates.get(fromPosition, false);
+            long id = RecyclerView.NO_ID;
+            boolean idChecked = false;
+            for (int i = 0; i < mCheckedIdStates.size(); i++) {
+                if (mCheckedIdStates.valueAt(i) == fromPosition) {
+                    id = mCheckedIdStates.keyAt(i);
+                    idChecked = true;
+                    break;
+                }
+            }
+            onItemRangeRemoved(fromPosition, 1);
+            onItemRangeInserted(toPosition, 1);
+            if (checked) {
+                mCheckStates.put(toPosition, true);
+            }
+            if (idChecked) {
+                mCheckedIdStates.put(id, toPosition);
+            }
+        }
     };
 
     private ItemChoiceManager() {
@@ -53,6 +88,7 @@ public class ItemChoiceManager {
 
     public ItemChoiceManager(RecyclerView.Adapter adapter) {
         mAdapter = adapter;
+        mAdapter.registerAdapterDataObserver(mAdapterDataObserver);
     }
 
     /**
@@ -162,7 +198,8 @@ public class ItemChoiceManager {
             final long id = mCheckedIdStates.keyAt(checkedIndex);
             final int lastPos = mCheckedIdStates.valueAt(checkedIndex);
 
-            final long lastPosId = mAdapter.getItemId(lastPos);
+            final long lastPosId = lastPos < oldItemCount
+                    ? mAdapter.getItemId(lastPos) : RecyclerView.NO_ID;
             if (id != lastPosId) {
                 // Look around to see if the ID is nearby. If not, uncheck it.
                 final int start = Math.max(0, lastPos - CHECK_POSITION_SEARCH_DISTANCE);
@@ -188,6 +225,44 @@ public class ItemChoiceManager {
         }
     }
 
+    /**
+     * Moves the states of the positions from fromPosition on by offset.
+     */
+    private void offsetCheckedPositions(int fromPosition, int offset) {
+        SparseBooleanArray checkStates = new SparseBooleanArray(mCheckStates.size());
+        for (int i = 0; i < mCheckStates.size(); i++) {
+            int position = mCheckStates.keyAt(i);
+            checkStates.put(position >= fromPosition ? position + offset : position,
+                    mCheckStates.valueAt(i));
+        }
+        mCheckStates = checkStates;
+        for (int i = 0; i < mCheckedIdStates.size(); i++) {
+            int position = mCheckedIdStates.valueAt(i);
+            if (position >= fromPosition) {
+                mCheckedIdStates.setValueAt(i, position + offset);
+            }
+        }
+    }
+
+    /**
+     * Drops the states of the positions in the range, for items that are gone.
+     */
+    private void uncheckPositions(int positionStart, int itemCount) {
+        int positionEnd = positionStart + itemCount;
+        for (int i = mCheckStates.size() - 1; i >= 0; i--) {
+            int position = mCheckStates.keyAt(i);
+            if (position >= positionStart && position < positionEnd) {
+                mCheckStates.delete(position);
+            }
+        }
+        for (int i = mCheckedIdStates.size() - 1; i >= 0; i--) {
+            int position = mCheckedIdStates.valueAt(i);
+            if (position >= positionStart && position < positionEnd) {
+                mCheckedIdStates.removeAt(i);
+            }
+        }
+    }
+
     public void onBindViewHolder(RecyclerView.ViewHolder vh, int position) {
         boolean checked = isItemChecked(position);
         if (vh.itemView instanceof Checkable) {
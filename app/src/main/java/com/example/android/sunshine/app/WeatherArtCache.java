@@ -0,0 +1,214 @@
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.util.Log;
+import android.util.LruCache;
+
+import com.bumptech.glide.Glide;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Weather art sized for where it is shown, shared by the notification and the widgets.  Art is
+ * keyed by condition bucket (the bundled art the condition maps to), art pack, width and height,
+ * and kept in memory, so within a sync each artwork is decoded or downloaded at most once per
+ * size.  Downloaded art is also kept on disk, so it isn't downloaded again on the next syncs;
+ * the disk cache only holds the current pack and at most {@link #MAX_DISK_ENTRIES} files.
+ *
+ * With the Sunshine art pack the bundled art is used, since that pack serves the same images;
+ * other packs are downloaded and fall back to the bundled art when that fails.  The fallback is
+ * not cached, so the pack's art is tried again the next time.
+ */
+public class WeatherArtCache {
+    private static final String LOG_TAG = WeatherArtCache.class.getSimpleName();
+
+    private static final String DISK_CACHE_DIR = "weather_art";
+    private static final int MEMORY_CACHE_BYTES = 2 * 1024 * 1024;
+    // Eight conditions at a few sizes each.
+    private static final int MAX_DISK_ENTRIES = 32;
+
+    private static WeatherArtCache sInstance;
+
+    private final Context mContext;
+    private final File mDiskCacheDir;
+    private final LruCache<String, Bitmap> mMemoryCache =
+            new LruCache<String, Bitmap>(MEMORY_CACHE_BYTES) {
+                @Override
+                protected int sizeOf(String key, Bitmap bitmap) {
+                    return bitmap.getByteCount();
+                }
+            };
+
+    public static synchronized WeatherArtCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WeatherArtCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private WeatherArtCache(Context context) {
+        mContext = context;
+        mDiskCacheDir = new File(context.getCacheDir(), DISK_CACHE_DIR);
+    }
+
+    /**
+     * Returns the art of a condition, scaled to fit within width x height.  May block on disk or
+     * network, so it must not be called on the main thread.
+     *
+     * @return the art, or null if there is no art for the condition.
+     */
+    public Bitmap get(int weatherId, int width, int height) {
+        int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
+        if (artResourceId == -1) {
+            return null;
+        }
+        // One read of the pack, so the key and the art loaded for it always agree.
+        WeatherConditions.ArtPack artPack = WeatherConditions.getArtPack(mContext);
+        String key = artPack.getCacheKey(weatherId) + width + "x" + height;
+
+        Bitmap art = mMemoryCache.get(key);
+        if (art != null) {
+            return art;
+        }
+        // Loading is serialized so concurrent callers asking for the same art wait for the first
+        // one instead of loading it again.
+        synchronized (this) {
+            art = mMemoryCache.get(key);
+            if (art != null) {
+                return art;
+            }
+            if (artPack.mLocal) {
+                art = decodeResource(artResourceId, width, height);
+            } else {
+                File file = new File(mDiskCacheDir, key + ".png");
+                art = BitmapFactory.decodeFile(file.getPath());
+                if (art == null) {
+                    art = download(artPack.getArtUrl(weatherId), width, height);
+                    if (art == null) {
+                        return decodeResource(artResourceId, width, height);
+                    }
+                    save(art, file, artPack.mCacheTag);
+                }
+            }
+            if (art != null) {
+                mMemoryCache.put(key, art);
+            }
+            return art;
+        }
+    }
+
+    private Bitmap download(String artUrl, int width, int height) {
+        try {
+            return Glide.with(mContext)
+                    .load(artUrl)
+                    .asBitmap()
+                    .fitCenter()
+                    .into(width, height).get();
+        } catch (InterruptedException | ExecutionException e) {
+            Log.e(LOG_TAG, "Error retrieving art from " + artUrl, e);
+            return null;
+        }
+    }
+
+    /**
+     * Decodes bundled art, subsampled as far as the size allows and then scaled to fit.
+     */
+    private Bitmap decodeResource(int artResourceId, int width, int height) {
+        Resources resources = mContext.getResources();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeResource(resources, artResourceId, options);
+        int sampleSize = 1;
+        while (options.outWidth / (sampleSize * 2) >= width
+                && options.outHeight / (sampleSize * 2) >= height) {
+            sampleSize *= 2;
+        }
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = sampleSize;
+        Bitmap decoded = BitmapFactory.decodeResource(resources, artResourceId, options);
+        if (decoded == null) {
+            return null;
+        }
+
+        float scale = Math.min((float) width / decoded.getWidth(),
+                (float) height / decoded.getHeight());
+        int scaledWidth = Math.max(1, Math.round(decoded.getWidth() * scale));
+        int scaledHeight = Math.max(1, Math.round(decoded.getHeight() * scale));
+        if (scaledWidth == decoded.getWidth() && scaledHeight == decoded.getHeight()) {
+            return decoded;
+        }
+        Bitmap scaled = Bitmap.createScaledBitmap(decoded, scaledWidth, scaledHeight, true);
+        decoded.recycle();
+        return scaled;
+    }
+
+    private void save(Bitmap art, File file, String packTag) {
+        if (!mDiskCacheDir.isDirectory() && !mDiskCacheDir.mkdirs()) {
+            return;
+        }
+        // Written aside and renamed, so a half written file is never read back.
+        File tmpFile = new File(mDiskCacheDir, file.getName() + ".tmp");
+        FileOutputStream out = null;
+        boolean written = false;
+        try {
+            out = new FileOutputStream(tmpFile);
+            written = art.compress(Bitmap.CompressFormat.PNG, 100, out);
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error caching art in " + file, e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    written = false;
+                }
+            }
+        }
+        if (!written || !tmpFile.renameTo(file)) {
+            tmpFile.delete();
+            return;
+        }
+        trimDiskCache(packTag);
+    }
+
+    /**
+     * Deletes the art of other packs, then the oldest art past {@link #MAX_DISK_ENTRIES}.
+     */
+    private void trimDiskCache(String packTag) {
+        File[] files = mDiskCacheDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        ArrayList<File> kept = new ArrayList<File>(files.length);
+        for (File file : files) {
+            if (file.getName().contains(packTag)) {
+                kept.add(file);
+            } else {
+                file.delete();
+            }
+        }
+        if (kept.size() <= MAX_DISK_ENTRIES) {
+            return;
+        }
+        Collections.sort(kept, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long lhsModified = lhs.lastModified();
+                long rhsModified = rhs.lastModified();
+                return lhsModified < rhsModified ? -1 : (lhsModified == rhsModified ? 0 : 1);
+            }
+        });
+        for (int i = 0; i < kept.size() - MAX_DISK_ENTRIES; i++) {
+            kept.get(i).delete();
+        }
+    }
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Lookup tables from OpenWeatherMap condition ids to what Sunshine shows for them, behind the
+ * condition helpers of {@link Utility}.  Every id maps to a bucket (storm, rain, fog...) that
+ * picks the icon, the art and the image, and to its own description; both are array lookups.
+ *
+ * Art urls depend on the art pack preference, so they are formatted once per pack and thrown away
+ * when the preference changes.
+ *
+ * Based on weather code data found at:
+ * http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+ */
+class WeatherConditions {
+
+    // Condition ids are all below this.
+    private static final int ID_LIMIT = 1000;
+
+    // Buckets, in the order of the per bucket tables below.
+    private static final byte NONE = -1;
+    private static final byte STORM = 0;
+    private static final byte LIGHT_RAIN = 1;
+    private static final byte RAIN = 2;
+    private static final byte SNOW = 3;
+    private static final byte FOG = 4;
+    private static final byte CLEAR = 5;
+    private static final byte LIGHT_CLOUDS = 6;
+    private static final byte CLOUDS = 7;
+
+    private static final int[] ICONS = {
+            R.drawable.ic_storm,
+            R.drawable.ic_light_rain,
+            R.drawable.ic_rain,
+            R.drawable.ic_snow,
+            R.drawable.ic_fog,
+            R.drawable.ic_clear,
+            R.drawable.ic_light_clouds,
+            R.drawable.ic_cloudy
+    };
+
+    private static final int[] ART = {
+            R.drawable.art_storm,
+            R.drawable.art_light_rain,
+            R.drawable.art_rain,
+            R.drawable.art_snow,
+            R.drawable.art_fog,
+            R.drawable.art_clear,
+            R.drawable.art_light_clouds,
+            R.drawable.art_clouds
+    };
+
+    // What art packs name the art of each bucket.
+    private static final String[] ART_NAMES = {
+            "storm",
+            "light_rain",
+            "rain",
+            "snow",
+            "fog",
+            "clear",
+            "light_clouds",
+            "clouds"
+    };
+
+    private static final String[] IMAGE_URLS = {
+            "http://upload.wikimedia.org/wikipedia/commons/2/28/Thunderstorm_in_Annemasse,_France.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/a/a0/Rain_on_leaf_504605006.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/6/6c/Rain-on-Thassos.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/b/b8/Fresh_snow.JPG",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e6/Westminster_fog_-_London_-_UK.jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/7/7e/A_few_trees_and_the_sun_(6009964513).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/e/e7/Cloudy_Blue_Sky_(5031259890).jpg",
+            "http://upload.wikimedia.org/wikipedia/commons/5/54/Cloudy_hills_in_Elis,_Greece_2.jpg"
+    };
+
+    // Tornadoes show the storm icon and art, but have an image of their own.
+    private static final int TORNADO_ID = 781;
+    private static final String TORNADO_IMAGE_URL =
+            "http://upload.wikimedia.org/wikipedia/commons/d/dc/Raised_dust_ahead_of_a_severe_thunderstorm_1.jpg";
+
+    private static final byte[] BUCKETS = new byte[ID_LIMIT];
+    private static final int[] STRING_IDS = new int[ID_LIMIT];
+
+    static {
+        Arrays.fill(BUCKETS, NONE);
+        Arrays.fill(BUCKETS, 200, 232 + 1, STORM);
+        Arrays.fill(BUCKETS, 300, 321 + 1, LIGHT_RAIN);
+        Arrays.fill(BUCKETS, 500, 504 + 1, RAIN);
+        BUCKETS[511] = SNOW;
+        Arrays.fill(BUCKETS, 520, 531 + 1, RAIN);
+        Arrays.fill(BUCKETS, 600, 622 + 1, SNOW);
+        Arrays.fill(BUCKETS, 701, 761 + 1, FOG);
+        BUCKETS[TORNADO_ID] = STORM;
+        BUCKETS[800] = CLEAR;
+        BUCKETS[801] = LIGHT_CLOUDS;
+        Arrays.fill(BUCKETS, 802, 804 + 1, CLOUDS);
+
+        Arrays.fill(STRING_IDS, 200, 232 + 1, R.string.condition_2xx);
+        Arrays.fill(STRING_IDS, 300, 321 + 1, R.string.condition_3xx);
+        STRING_IDS[500] = R.string.condition_500;
+        STRING_IDS[501] = R.string.condition_501;
+        STRING_IDS[502] = R.string.condition_502;
+        STRING_IDS[503] = R.string.condition_503;
+        STRING_IDS[504] = R.string.condition_504;
+        STRING_IDS[511] = R.string.condition_511;
+        STRING_IDS[520] = R.string.condition_520;
+        STRING_IDS[531] = R.string.condition_531;
+        STRING_IDS[600] = R.string.condition_600;
+        STRING_IDS[601] = R.string.condition_601;
+        STRING_IDS[602] = R.string.condition_602;
+        STRING_IDS[611] = R.string.condition_611;
+        STRING_IDS[612] = R.string.condition_612;
+        STRING_IDS[615] = R.string.condition_615;
+        STRING_IDS[616] = R.string.condition_616;
+        STRING_IDS[620] = R.string.condition_620;
+        STRING_IDS[621] = R.string.condition_621;
+        STRING_IDS[622] = R.string.condition_622;
+        STRING_IDS[701] = R.string.condition_701;
+        STRING_IDS[711] = R.string.condition_711;
+        STRING_IDS[721] = R.string.condition_721;
+        STRING_IDS[731] = R.string.condition_731;
+        STRING_IDS[741] = R.string.condition_741;
+        STRING_IDS[751] = R.string.condition_751;
+        STRING_IDS[761] = R.string.condition_761;
+        STRING_IDS[762] = R.string.condition_762;
+        STRING_IDS[771] = R.string.condition_771;
+        STRING_IDS[781] = R.string.condition_781;
+        STRING_IDS[800] = R.string.condition_800;
+        STRING_IDS[801] = R.string.condition_801;
+        STRING_IDS[802] = R.string.condition_802;
+        STRING_IDS[803] = R.string.condition_803;
+        STRING_IDS[804] = R.string.condition_804;
+        STRING_IDS[900] = R.string.condition_900;
+        STRING_IDS[901] = R.string.condition_901;
+        STRING_IDS[902] = R.string.condition_902;
+        STRING_IDS[903] = R.string.condition_903;
+        STRING_IDS[904] = R.string.condition_904;
+        STRING_IDS[905] = R.string.condition_905;
+        STRING_IDS[906] = R.string.condition_906;
+        STRING_IDS[951] = R.string.condition_951;
+        STRING_IDS[952] = R.string.condition_952;
+        STRING_IDS[953] = R.string.condition_953;
+        STRING_IDS[954] = R.string.condition_954;
+        STRING_IDS[955] = R.string.condition_955;
+        STRING_IDS[956] = R.string.condition_956;
+        STRING_IDS[957] = R.string.condition_957;
+        STRING_IDS[958] = R.string.condition_958;
+        STRING_IDS[959] = R.string.condition_959;
+        STRING_IDS[960] = R.string.condition_960;
+        STRING_IDS[961] = R.string.condition_961;
+        STRING_IDS[962] = R.string.condition_962;
+    }
+
+    /**
+     * The art pack in use, with the art url of every bucket formatted for it, and the keys
+     * {@link WeatherArtCache} stores the art of the pack under.
+     */
+    static class ArtPack {
+        final boolean mLocal;
+        final String[] mArtUrls = new String[ART_NAMES.length];
+        // Part of the name of every file the art cache keeps for the pack.
+        final String mCacheTag;
+        // The art of each bucket is cached under its key followed by the size.
+        final String[] mCacheKeys = new String[ART_NAMES.length];
+
+        ArtPack(String formatArtUrl, String sunshineArtPack) {
+            mLocal = formatArtUrl.equals(sunshineArtPack);
+            mCacheTag = "_" + Integer.toHexString(formatArtUrl.hashCode()) + "_";
+            for (int i = 0; i < ART_NAMES.length; i++) {
+                mArtUrls[i] = String.format(Locale.US, formatArtUrl, ART_NAMES[i]);
+                // Named after the bundled art, whose names, unlike resource ids, stay the same
+                // between builds.
+                mCacheKeys[i] = "art_" + ART_NAMES[i] + mCacheTag;
+            }
+        }
+
+        /**
+         * @return url of the art of the condition in this pack, or null if there is none.
+         */
+        String getArtUrl(int weatherId) {
+            int bucket = getBucket(weatherId);
+            return bucket == NONE ? null : mArtUrls[bucket];
+        }
+
+        /**
+         * @return the cache key of the art of the condition in this pack, or null if there is
+         * none.
+         */
+        String getCacheKey(int weatherId) {
+            int bucket = getBucket(weatherId);
+            return bucket == NONE ? null : mCacheKeys[bucket];
+        }
+    }
+
+    private static volatile ArtPack sArtPack;
+
+    // Preferences only keep weak references to their listeners, so this one is held here.
+    private static SharedPreferences.OnSharedPreferenceChangeListener sArtPackListener;
+
+    private WeatherConditions() {
+    }
+
+    private static int getBucket(int weatherId) {
+        return weatherId >= 0 && weatherId < ID_LIMIT ? BUCKETS[weatherId] : NONE;
+    }
+
+    /**
+     * @return resource id of the icon of the condition, or -1 if there is none.
+     */
+    static int getIconResource(int weatherId) {
+        int bucket = getBucket(weatherId);
+        return bucket == NONE ? -1 : ICONS[bucket];
+    }
+
+    /**
+     * @return resource id of the art of the condition, or -1 if there is none.
+     */
+    static int getArtResource(int weatherId) {
+        int bucket = getBucket(weatherId);
+        return bucket == NONE ? -1 : ART[bucket];
+    }
+
+    /**
+     * @return resource id of the description of the condition, or 0 if there is none.
+     */
+    static int getStringResource(int weatherId) {
+        return weatherId >= 0 && weatherId < ID_LIMIT ? STRING_IDS[weatherId] : 0;
+    }
+
+    /**
+     * @return url of an image of the condition, or null if there is none.
+     */
+    static String getImageUrl(int weatherId) {
+        if (weatherId == TORNADO_ID) {
+            return TORNADO_IMAGE_URL;
+        }
+        int bucket = getBucket(weatherId);
+        return bucket == NONE ? null : IMAGE_URLS[bucket];
+    }
+
+    /**
+     * @return url of the art of the condition in the preferred art pack, or null if there is none.
+     */
+    static String getArtUrl(Context context, int weatherId) {
+        return getArtPack(context).getArtUrl(weatherId);
+    }
+
+    /**
+     * @return true if the preferred art pack is the one bundled with Sunshine.
+     */
+    static boolean usingLocalGraphics(Context context) {
+        return getArtPack(context).mLocal;
+    }
+
+    /**
+     * @return the preferred art pack, read from the preferences only after it changed.
+     */
+    static ArtPack getArtPack(Context context) {
+        ArtPack artPack = sArtPack;
+        if (artPack != null) {
+            return artPack;
+        }
+        synchronized (WeatherConditions.class) {
+            if (sArtPack != null) {
+                return sArtPack;
+            }
+            final String artPackKey = context.getString(R.string.pref_art_pack_key);
+            String sunshineArtPack = context.getString(R.string.pref_art_pack_sunshine);
+            SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+            if (sArtPackListener == null) {
+                sArtPackListener = new SharedPreferences.OnSharedPreferenceChangeListener() {
+                    @Override
+                    public void onSharedPreferenceChanged(SharedPreferences sharedPreferences,
+                                                          String key) {
+                        if (artPackKey.equals(key)) {
+                            // Under the lock, so a pack read before the change can't be
+                            // stored after this.
+                            synchronized (WeatherConditions.class) {
+                                sArtPack = null;
+                            }
+                        }
+                    }
+                };
+                prefs.registerOnSharedPreferenceChangeListener(sArtPackListener);
+            }
+            sArtPack = new ArtPack(prefs.getString(artPackKey, sunshineArtPack), sunshineArtPack);
+            return sArtPack;
+        }
+    }
+}
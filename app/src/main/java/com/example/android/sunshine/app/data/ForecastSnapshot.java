@@ -0,0 +1,181 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.example.android.sunshine.app.data;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Immutable copy of the stored forecast of one location, held in primitive arrays sorted by
+ * date.  Snapshots are cached for the whole process and dropped by {@link WeatherProvider}
+ * whenever it notifies a change to their location, so point reads such as today's weather for
+ * the widgets, Muzei, the notification and the watch don't touch SQLite once loaded.
+ */
+public final class ForecastSnapshot {
+
+    private static final String[] SNAPSHOT_COLUMNS = {
+            WeatherEntry.TABLE_NAME + "." + WeatherEntry._ID,
+            WeatherEntry.COLUMN_DATE,
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_MIN_TEMP
+    };
+    // these indices must match the projection
+    private static final int INDEX_ID = 0;
+    private static final int INDEX_DATE = 1;
+    private static final int INDEX_WEATHER_ID = 2;
+    private static final int INDEX_SHORT_DESC = 3;
+    private static final int INDEX_MAX_TEMP = 4;
+    private static final int INDEX_MIN_TEMP = 5;
+
+    private static final HashMap<String, ForecastSnapshot> sSnapshots =
+            new HashMap<String, ForecastSnapshot>();
+    // Bumped by every invalidation, so a load that raced with a write isn't cached.
+    private static int sGeneration;
+
+    private final long[] mIds;
+    private final long[] mDates;
+    private final int[] mWeatherIds;
+    private final String[] mDescriptions;
+    private final double[] mHighs;
+    private final double[] mLows;
+
+    private ForecastSnapshot(int size) {
+        mIds = new long[size];
+        mDates = new long[size];
+        mWeatherIds = new int[size];
+        mDescriptions = new String[size];
+        mHighs = new double[size];
+        mLows = new double[size];
+    }
+
+    /**
+     * Returns the forecast stored for a location, loading it if it isn't cached.  May touch the
+     * database, so don't call it on the main thread.
+     *
+     * @return the snapshot, which is empty if nothing is stored, or null if the provider
+     * couldn't be queried.
+     */
+    public static ForecastSnapshot get(Context context, String locationSetting) {
+        int generation;
+        synchronized (sSnapshots) {
+            ForecastSnapshot snapshot = sSnapshots.get(locationSetting);
+            if (snapshot != null) {
+                return snapshot;
+            }
+            generation = sGeneration;
+        }
+
+        Cursor cursor = context.getContentResolver().query(
+                WeatherEntry.buildWeatherLocation(locationSetting),
+                SNAPSHOT_COLUMNS,
+                null,
+                null,
+                WeatherEntry.COLUMN_DATE + " ASC");
+        if (cursor == null) {
+            return null;
+        }
+        ForecastSnapshot snapshot = new ForecastSnapshot(cursor.getCount());
+        try {
+            for (int i = 0; cursor.moveToNext(); i++) {
+                snapshot.mIds[i] = cursor.getLong(INDEX_ID);
+                snapshot.mDates[i] = cursor.getLong(INDEX_DATE);
+                snapshot.mWeatherIds[i] = cursor.getInt(INDEX_WEATHER_ID);
+                snapshot.mDescriptions[i] = cursor.getString(INDEX_SHORT_DESC);
+                snapshot.mHighs[i] = cursor.getDouble(INDEX_MAX_TEMP);
+                snapshot.mLows[i] = cursor.getDouble(INDEX_MIN_TEMP);
+            }
+        } finally {
+            cursor.close();
+        }
+
+        synchronized (sSnapshots) {
+            if (generation == sGeneration) {
+                sSnapshots.put(locationSetting, snapshot);
+            }
+        }
+        return snapshot;
+    }
+
+    static void invalidate(String locationSetting) {
+        synchronized (sSnapshots) {
+            sGeneration++;
+            sSnapshots.remove(locationSetting);
+        }
+    }
+
+    static void invalidateAll() {
+        synchronized (sSnapshots) {
+            sGeneration++;
+            sSnapshots.clear();
+        }
+    }
+
+    public int size() {
+        return mDates.length;
+    }
+
+    /**
+     * @return the index of the given day, or -1 if it isn't stored.
+     */
+    public int indexOfDay(long date) {
+        int index = Arrays.binarySearch(mDates, WeatherContract.normalizeDate(date));
+        return index >= 0 ? index : -1;
+    }
+
+    /**
+     * @return the index of the first stored day on or after the given one, or -1 if there is
+     * none.
+     */
+    public int indexOfFirstDayFrom(long date) {
+        int index = Arrays.binarySearch(mDates, WeatherContract.normalizeDate(date));
+        if (index < 0) {
+            // binarySearch returns -(insertion point) - 1 for a missing day.
+            index = -index - 1;
+        }
+        return index < mDates.length ? index : -1;
+    }
+
+    public long getId(int index) {
+        return mIds[index];
+    }
+
+    public long getDate(int index) {
+        return mDates[index];
+    }
+
+    public int getWeatherId(int index) {
+        return mWeatherIds[index];
+    }
+
+    public String getDescription(int index) {
+        return mDescriptions[index];
+    }
+
+    public double getHigh(int index) {
+        return mHighs[index];
+    }
+
+    public double getLow(int index) {
+        return mLows[index];
+    }
+}
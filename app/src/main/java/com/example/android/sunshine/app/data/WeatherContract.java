@@ -19,8 +19,11 @@ import android.content.ContentResolver;
 import android.content.ContentUris;
 import android.net.Uri;
 import android.provider.BaseColumns;
+import android.text.format.DateUtils;
 import android.text.format.Time;
 
+import java.util.TimeZone;
+
 /**
  * Defines table and column names for the weather database.
  */
@@ -54,6 +57,23 @@ public class WeatherContract {
         return time.setJulianDay(julianDay);
     }
 
+    /**
+     * Same as {@link #normalizeDate(long)}, but without allocating, for callers that normalize
+     * many dates in a row.  The time zone should be the default one, looked up once by the caller.
+     */
+    public static long normalizeDate(long startDate, TimeZone timeZone) {
+        long wallClock = startDate + timeZone.getOffset(startDate);
+        long day = wallClock / DateUtils.DAY_IN_MILLIS;
+        if (wallClock % DateUtils.DAY_IN_MILLIS < 0) {
+            day--;
+        }
+        long localMidnight = day * DateUtils.DAY_IN_MILLIS;
+        // The offset at midnight can differ from the one at the start date when a daylight
+        // saving change falls in between, so correct the first guess with it.
+        long guess = localMidnight - timeZone.getOffset(startDate);
+        return localMidnight - timeZone.getOffset(guess);
+    }
+
     /* Inner class that defines the table contents of the location table */
     public static final class LocationEntry implements BaseColumns {
 
@@ -81,6 +101,13 @@ public class WeatherContract {
         public static final String COLUMN_COORD_LAT = "coord_lat";
         public static final String COLUMN_COORD_LONG = "coord_long";
 
+        // HTTP cache validators of the last forecast fetched for this location, so the next
+        // sync can make a conditional request.  The expiry is derived from the response's
+        // max-age and stored in milliseconds since the epoch.
+        public static final String COLUMN_ETAG = "etag";
+        public static final String COLUMN_LAST_MODIFIED = "last_modified";
+        public static final String COLUMN_EXPIRES = "expires";
+
         public static Uri buildLocationUri(long id) {
             return ContentUris.withAppendedId(CONTENT_URI, id);
         }
@@ -144,6 +171,12 @@ public class WeatherContract {
                     .appendQueryParameter(COLUMN_DATE, Long.toString(normalizedDate)).build();
         }
 
+        /**
+         * The row of one day of a location's forecast.  Updating this URI is an upsert: the day
+         * is inserted if it isn't stored yet, and left alone if it didn't change.  The update
+         * takes no selection, and its values don't need the location key or the date, which come
+         * from the URI.  It returns 1 if the row was inserted or changed, 0 otherwise.
+         */
         public static Uri buildWeatherLocationWithDate(String locationSetting, long date) {
             return CONTENT_URI.buildUpon().appendPath(locationSetting)
                     .appendPath(Long.toString(normalizeDate(date))).build();
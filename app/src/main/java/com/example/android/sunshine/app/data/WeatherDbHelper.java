@@ -27,13 +27,78 @@ import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
  */
 public class WeatherDbHelper extends SQLiteOpenHelper {
 
-    // If you change the database schema, you must increment the database version.
-    private static final int DATABASE_VERSION = 2;
+    // If you change the database schema, you must increment the database version and add the
+    // step that migrates the previous version to MIGRATIONS.
+    static final int DATABASE_VERSION = 4;
 
     static final String DATABASE_NAME = "weather.db";
 
+    // The provider's selections all join on the location key and filter or sort on the date.
+    // The UNIQUE (date, location_id) constraint has its columns the other way around, so it
+    // can't serve them.
+    static final String WEATHER_LOCATION_DATE_INDEX = "weather_location_date";
+    private static final String SQL_CREATE_WEATHER_LOCATION_DATE_INDEX =
+            "CREATE INDEX " + WEATHER_LOCATION_DATE_INDEX + " ON " + WeatherEntry.TABLE_NAME +
+                    " (" + WeatherEntry.COLUMN_LOC_KEY + ", " + WeatherEntry.COLUMN_DATE + ");";
+
+    /**
+     * One step of the schema history, which upgrades a database from one version to the next
+     * without losing its rows.
+     */
+    static abstract class Migration {
+        final int mFromVersion;
+
+        Migration(int fromVersion) {
+            mFromVersion = fromVersion;
+        }
+
+        abstract void migrate(SQLiteDatabase db);
+    }
+
+    // The migration steps, in version order.  A database older than the first step is dropped
+    // and created again.
+    static final Migration[] MIGRATIONS = {
+            // 2 -> 3: HTTP cache validators of each location's forecast
+            new Migration(2) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL("ALTER TABLE " + LocationEntry.TABLE_NAME + " ADD COLUMN " +
+                            LocationEntry.COLUMN_ETAG + " TEXT");
+                    db.execSQL("ALTER TABLE " + LocationEntry.TABLE_NAME + " ADD COLUMN " +
+                            LocationEntry.COLUMN_LAST_MODIFIED + " TEXT");
+                    db.execSQL("ALTER TABLE " + LocationEntry.TABLE_NAME + " ADD COLUMN " +
+                            LocationEntry.COLUMN_EXPIRES + " INTEGER NOT NULL DEFAULT 0");
+                }
+            },
+            // 3 -> 4: index for the provider's selections
+            new Migration(3) {
+                @Override
+                void migrate(SQLiteDatabase db) {
+                    db.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
+                }
+            }
+    };
+
+    // Page cache of the writing connection, in KiB (negative cache_size values are sizes, not
+    // page counts).  It holds the whole database for a handful of locations.
+    private static final int CACHE_SIZE_KIB = 2048;
+
     public WeatherDbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        // The sync adapter writes while the forecast list, the widgets and Muzei read.  With
+        // write-ahead logging the readers get their own connections and see the last commit
+        // instead of waiting for the writer's transaction to end.
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        // In WAL mode NORMAL only syncs at checkpoints.  A power loss can lose the last
+        // transactions but never corrupts the database, which is fine for a cache of
+        // downloaded forecasts.
+        db.execSQL("PRAGMA synchronous = NORMAL");
+        db.execSQL("PRAGMA cache_size = -" + CACHE_SIZE_KIB);
     }
 
     @Override
@@ -45,7 +110,10 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
                 LocationEntry.COLUMN_LOCATION_SETTING + " TEXT UNIQUE NOT NULL, " +
                 LocationEntry.COLUMN_CITY_NAME + " TEXT NOT NULL, " +
                 LocationEntry.COLUMN_COORD_LAT + " REAL NOT NULL, " +
-                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL " +
+                LocationEntry.COLUMN_COORD_LONG + " REAL NOT NULL, " +
+                LocationEntry.COLUMN_ETAG + " TEXT, " +
+                LocationEntry.COLUMN_LAST_MODIFIED + " TEXT, " +
+                LocationEntry.COLUMN_EXPIRES + " INTEGER NOT NULL DEFAULT 0 " +
                 " );";
 
         final String SQL_CREATE_WEATHER_TABLE = "CREATE TABLE " + WeatherEntry.TABLE_NAME + " (" +
@@ -81,16 +149,27 @@ public class WeatherDbHelper extends SQLiteOpenHelper {
 
         sqLiteDatabase.execSQL(SQL_CREATE_LOCATION_TABLE);
         sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_TABLE);
+        sqLiteDatabase.execSQL(SQL_CREATE_WEATHER_LOCATION_DATE_INDEX);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase sqLiteDatabase, int oldVersion, int newVersion) {
-        // This database is only a cache for online data, so its upgrade policy is
-        // to simply to discard the data and start over
+        // Keeping the cached forecasts means the first launch after an update can show them
+        // right away instead of waiting for a sync.  SQLiteOpenHelper runs this in a
+        // transaction, so a failing step leaves the database at its old version.
         // Note that this only fires if you change the version number for your database.
         // It does NOT depend on the version number for your application.
-        // If you want to update the schema without wiping data, commenting out the next 2 lines
-        // should be your top priority before modifying this method.
+        if (oldVersion >= MIGRATIONS[0].mFromVersion) {
+            for (Migration migration : MIGRATIONS) {
+                if (migration.mFromVersion >= oldVersion && migration.mFromVersion < newVersion) {
+                    migration.migrate(sqLiteDatabase);
+                }
+            }
+            return;
+        }
+
+        // Versions without a migration path are only a cache for online data, so they are
+        // discarded and we start over.
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + LocationEntry.TABLE_NAME);
         sqLiteDatabase.execSQL("DROP TABLE IF EXISTS " + WeatherEntry.TABLE_NAME);
         onCreate(sqLiteDatabase);
@@ -17,25 +17,85 @@ package com.example.android.sunshine.app.data;
 
 import android.annotation.TargetApi;
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteQueryBuilder;
 import android.net.Uri;
+import android.util.Log;
+import android.util.LongSparseArray;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
 
 public class WeatherProvider extends ContentProvider {
+    private static final String LOG_TAG = WeatherProvider.class.getSimpleName();
 
     // The URI Matcher used by this content provider.
     private static final UriMatcher sUriMatcher = buildUriMatcher();
     private WeatherDbHelper mOpenHelper;
 
+    // location._id -> location.location_setting, to build the weather/<location> URIs that
+    // weather change notifications are scoped to.  Cleared when locations change or go away.
+    private final LongSparseArray<String> mLocationSettings = new LongSparseArray<String>();
+
+    // The applyBatch() running on each thread, if any.
+    private final ThreadLocal<Batch> mBatch = new ThreadLocal<Batch>();
+
+    /**
+     * Thrown when weather is written for a location that isn't stored, which a batch reports as
+     * an OperationApplicationException.  The location may have been removed after the batch
+     * was built.
+     */
+    private static class UnknownLocationException extends IllegalArgumentException {
+        UnknownLocationException(String locationSetting) {
+            super("Unknown location: " + locationSetting);
+        }
+    }
+
+    /**
+     * State shared by the operations of one applyBatch(), which runs them all in a single
+     * transaction: one upserter for the weather rows, the ids of the locations looked up by
+     * setting, and the change notifications, which are only sent once the batch commits.
+     */
+    private static class Batch {
+        final SQLiteDatabase mDb;
+        final HashSet<Uri> mNotifications = new HashSet<Uri>();
+        final HashMap<String, Long> mLocationIds = new HashMap<String, Long>();
+        private WeatherUpserter mUpserter;
+
+        Batch(SQLiteDatabase db) {
+            mDb = db;
+        }
+
+        WeatherUpserter getUpserter() {
+            if (mUpserter == null) {
+                mUpserter = new WeatherUpserter(mDb);
+            }
+            return mUpserter;
+        }
+
+        void close() {
+            if (mUpserter != null) {
+                mUpserter.close();
+            }
+        }
+    }
+
     static final int WEATHER = 100;
     static final int WEATHER_WITH_LOCATION = 101;
     static final int WEATHER_WITH_LOCATION_AND_DATE = 102;
     static final int LOCATION = 300;
 
-    private static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
+    // The query builder and selections are package-private so their query plans can be tested.
+    static final SQLiteQueryBuilder sWeatherByLocationSettingQueryBuilder;
 
     static{
         sWeatherByLocationSettingQueryBuilder = new SQLiteQueryBuilder();
@@ -52,18 +112,18 @@ public class WeatherProvider extends ContentProvider {
     }
 
     //location.location_setting = ?
-    private static final String sLocationSettingSelection =
+    static final String sLocationSettingSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? ";
 
     //location.location_setting = ? AND date >= ?
-    private static final String sLocationSettingWithStartDateSelection =
+    static final String sLocationSettingWithStartDateSelection =
             WeatherContract.LocationEntry.TABLE_NAME+
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " >= ? ";
 
     //location.location_setting = ? AND date = ?
-    private static final String sLocationSettingAndDaySelection =
+    static final String sLocationSettingAndDaySelection =
             WeatherContract.LocationEntry.TABLE_NAME +
                     "." + WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ? AND " +
                     WeatherContract.WeatherEntry.COLUMN_DATE + " = ? ";
@@ -232,12 +292,24 @@ public class WeatherProvider extends ContentProvider {
 
         switch (match) {
             case WEATHER: {
-                normalizeDate(values);
-                long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, values);
+                // A day that is already stored is updated in place, or left alone if unchanged.
+                WeatherUpserter upserter = beginUpsert(db);
+                int writtenBefore = upserter.getWrittenCount();
+                long _id;
+                try {
+                    _id = upserter.upsert(values);
+                } finally {
+                    endUpsert(upserter);
+                }
                 if ( _id > 0 )
                     returnUri = WeatherContract.WeatherEntry.buildWeatherUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                if (upserter.getWrittenCount() != writtenBefore) {
+                    HashSet<Long> locationIds = new HashSet<Long>();
+                    locationIds.add(values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY));
+                    notifyWeatherChanged(db, locationIds);
+                }
                 break;
             }
             case LOCATION: {
@@ -246,12 +318,12 @@ public class WeatherProvider extends ContentProvider {
                     returnUri = WeatherContract.LocationEntry.buildLocationUri(_id);
                 else
                     throw new android.database.SQLException("Failed to insert row into " + uri);
+                notifyChange(uri);
                 break;
             }
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        getContext().getContentResolver().notifyChange(uri, null);
         return returnUri;
     }
 
@@ -263,21 +335,35 @@ public class WeatherProvider extends ContentProvider {
         // this makes delete all rows return the number of rows deleted
         if ( null == selection ) selection = "1";
         switch (match) {
-            case WEATHER:
-                rowsDeleted = db.delete(
-                        WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+            case WEATHER: {
+                Set<Uri> changedUris;
+                db.beginTransaction();
+                try {
+                    changedUris = getWeatherUris(db,
+                            queryWeatherLocationIds(db, selection, selectionArgs));
+                    rowsDeleted = db.delete(
+                            WeatherContract.WeatherEntry.TABLE_NAME, selection, selectionArgs);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                // Because a null deletes all rows
+                if (rowsDeleted != 0) {
+                    notifyChanges(changedUris);
+                }
                 break;
+            }
             case LOCATION:
                 rowsDeleted = db.delete(
                         WeatherContract.LocationEntry.TABLE_NAME, selection, selectionArgs);
+                if (rowsDeleted != 0) {
+                    clearLocationSettings();
+                    notifyChange(uri);
+                }
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        // Because a null deletes all rows
-        if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
-        }
         return rowsDeleted;
     }
 
@@ -297,51 +383,306 @@ public class WeatherProvider extends ContentProvider {
         int rowsUpdated;
 
         switch (match) {
-            case WEATHER:
+            // "weather/*/#"
+            case WEATHER_WITH_LOCATION_AND_DATE:
+                // The URI names the row, so a selection would be ignored.
+                if (selection != null || selectionArgs != null) {
+                    throw new IllegalArgumentException("Selection not supported for " + uri);
+                }
+                rowsUpdated = upsertWeatherDay(db, uri, values);
+                break;
+            case WEATHER: {
                 normalizeDate(values);
-                rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values, selection,
-                        selectionArgs);
+                Set<Uri> changedUris;
+                db.beginTransaction();
+                try {
+                    HashSet<Long> locationIds =
+                            queryWeatherLocationIds(db, selection, selectionArgs);
+                    // Rows may also be moved to another location.
+                    Long newLocationId =
+                            values.getAsLong(WeatherContract.WeatherEntry.COLUMN_LOC_KEY);
+                    if (newLocationId != null) {
+                        locationIds.add(newLocationId);
+                    }
+                    changedUris = getWeatherUris(db, locationIds);
+                    rowsUpdated = db.update(WeatherContract.WeatherEntry.TABLE_NAME, values,
+                            selection, selectionArgs);
+                    db.setTransactionSuccessful();
+                } finally {
+                    db.endTransaction();
+                }
+                if (rowsUpdated != 0) {
+                    notifyChanges(changedUris);
+                }
                 break;
+            }
             case LOCATION:
                 rowsUpdated = db.update(WeatherContract.LocationEntry.TABLE_NAME, values, selection,
                         selectionArgs);
+                if (rowsUpdated != 0) {
+                    clearLocationSettings();
+                    notifyChange(uri);
+                }
                 break;
             default:
                 throw new UnsupportedOperationException("Unknown uri: " + uri);
         }
-        if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
-        }
         return rowsUpdated;
     }
 
+    /**
+     * Writes the row of weather/<location>/<date>, inserting it if the day isn't stored yet.  The
+     * values don't need the location key or date, which come from the URI; the caller's values
+     * are left as they were.
+     *
+     * @return 1 if the row was inserted or changed, 0 if it was already up to date.
+     */
+    private int upsertWeatherDay(SQLiteDatabase db, Uri uri, ContentValues values) {
+        String locationSetting = WeatherContract.WeatherEntry.getLocationSettingFromUri(uri);
+        long locationId = getLocationId(db, locationSetting);
+        ContentValues row = new ContentValues(values);
+        row.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
+        row.put(WeatherContract.WeatherEntry.COLUMN_DATE,
+                WeatherContract.WeatherEntry.getDateFromUri(uri));
+
+        WeatherUpserter upserter = beginUpsert(db);
+        int writtenBefore = upserter.getWrittenCount();
+        try {
+            if (upserter.upsert(row) == -1) {
+                throw new android.database.SQLException("Failed to write row " + uri);
+            }
+        } finally {
+            endUpsert(upserter);
+        }
+        if (upserter.getWrittenCount() == writtenBefore) {
+            return 0;
+        }
+        HashSet<Uri> changedUris = new HashSet<Uri>();
+        changedUris.add(WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting));
+        notifyChanges(changedUris);
+        return 1;
+    }
+
+    private long getLocationId(SQLiteDatabase db, String locationSetting) {
+        Batch batch = mBatch.get();
+        if (batch != null && batch.mLocationIds.containsKey(locationSetting)) {
+            return batch.mLocationIds.get(locationSetting);
+        }
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry._ID},
+                sLocationSettingSelection,
+                new String[]{locationSetting},
+                null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                throw new UnknownLocationException(locationSetting);
+            }
+            long locationId = cursor.getLong(0);
+            if (batch != null) {
+                batch.mLocationIds.put(locationSetting, locationId);
+            }
+            return locationId;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Inside a batch the batch's upserter is shared by every operation; otherwise each write
+    // gets its own.
+    private WeatherUpserter beginUpsert(SQLiteDatabase db) {
+        Batch batch = mBatch.get();
+        return batch != null ? batch.getUpserter() : new WeatherUpserter(db);
+    }
+
+    private void endUpsert(WeatherUpserter upserter) {
+        if (mBatch.get() == null) {
+            upserter.close();
+        }
+    }
+
+    /*
+        Runs the whole batch in one transaction, so a sync's location inserts, forecast rows and
+        cleanup are committed together, or not at all.  The transaction is never yielded: a
+        yield would commit part of the batch, and if a later operation failed the committed part
+        would go without its notifications.  The change notifications of every operation are
+        sent once, after the commit.  Weather for a location that isn't stored fails the batch
+        with an OperationApplicationException, like any other operation that can't be applied.
+     */
     @Override
-    public int bulkInsert(Uri uri, ContentValues[] values) {
+    public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations)
+            throws OperationApplicationException {
         final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        Batch batch = new Batch(db);
+        mBatch.set(batch);
+        ContentProviderResult[] results = new ContentProviderResult[operations.size()];
+        boolean successful = false;
+        db.beginTransaction();
+        try {
+            for (int i = 0; i < results.length; i++) {
+                try {
+                    results[i] = operations.get(i).apply(this, results, i);
+                } catch (UnknownLocationException e) {
+                    throw new OperationApplicationException(e.getMessage(), e);
+                }
+            }
+            db.setTransactionSuccessful();
+            successful = true;
+        } finally {
+            batch.close();
+            mBatch.remove();
+            db.endTransaction();
+            if (!successful) {
+                // Locations inserted by the batch are gone again, and their ids may be reused.
+                clearLocationSettings();
+            }
+        }
+        notifyChanges(batch.mNotifications);
+        return results;
+    }
+
+    /*
+        Weather rows are compared with the stored ones, so rows that didn't change aren't
+        rewritten and only the observers of the locations that changed are woken up, once.  The
+        return value counts the rows that were inserted or updated.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case WEATHER:
-                db.beginTransaction();
-                int returnCount = 0;
-                try {
-                    for (ContentValues value : values) {
-                        normalizeDate(value);
-                        long _id = db.insert(WeatherContract.WeatherEntry.TABLE_NAME, null, value);
-                        if (_id != -1) {
-                            returnCount++;
-                        }
-                    }
-                    db.setTransactionSuccessful();
-                } finally {
-                    db.endTransaction();
-                }
-                getContext().getContentResolver().notifyChange(uri, null);
-                return returnCount;
+                return upsertWeather(values).getWrittenCount();
             default:
                 return super.bulkInsert(uri, values);
         }
     }
 
+    /**
+     * Upserts the rows in one transaction.  Observers are notified once per affected location.
+     */
+    private WeatherUpserter upsertWeather(ContentValues[] values) {
+        final SQLiteDatabase db = mOpenHelper.getWritableDatabase();
+        WeatherUpserter upserter = new WeatherUpserter(db);
+        Set<Uri> changedUris;
+        db.beginTransaction();
+        try {
+            for (ContentValues value : values) {
+                upserter.upsert(value);
+            }
+            changedUris = getWeatherUris(db, upserter.mChangedLocationIds);
+            db.setTransactionSuccessful();
+        } finally {
+            upserter.close();
+            db.endTransaction();
+        }
+        Log.d(LOG_TAG, "Upserted weather: " + upserter.mInserted + " inserted, "
+                + upserter.mUpdated + " updated, " + upserter.mUnchanged + " unchanged");
+        notifyChanges(changedUris);
+        return upserter;
+    }
+
+    private HashSet<Long> queryWeatherLocationIds(SQLiteDatabase db, String selection,
+                                                  String[] selectionArgs) {
+        HashSet<Long> locationIds = new HashSet<Long>();
+        Cursor cursor = db.query(true, WeatherContract.WeatherEntry.TABLE_NAME,
+                new String[]{WeatherContract.WeatherEntry.COLUMN_LOC_KEY},
+                selection, selectionArgs, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                locationIds.add(cursor.getLong(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return locationIds;
+    }
+
+    /**
+     * Maps location ids to the weather/<location> URIs to notify.  An id whose location can't be
+     * found falls back to the base weather URI, which reaches every weather observer.
+     */
+    private Set<Uri> getWeatherUris(SQLiteDatabase db, Collection<Long> locationIds) {
+        HashSet<Uri> uris = new HashSet<Uri>();
+        for (Long locationId : locationIds) {
+            String locationSetting = locationId == null ? null : getLocationSetting(db, locationId);
+            if (locationSetting == null) {
+                uris.clear();
+                uris.add(WeatherContract.WeatherEntry.CONTENT_URI);
+                return uris;
+            }
+            uris.add(WeatherContract.WeatherEntry.buildWeatherLocation(locationSetting));
+        }
+        return uris;
+    }
+
+    private String getLocationSetting(SQLiteDatabase db, long locationId) {
+        synchronized (mLocationSettings) {
+            String locationSetting = mLocationSettings.get(locationId);
+            if (locationSetting != null) {
+                return locationSetting;
+            }
+        }
+        Cursor cursor = db.query(WeatherContract.LocationEntry.TABLE_NAME,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                WeatherContract.LocationEntry._ID + " = ?",
+                new String[]{Long.toString(locationId)},
+                null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
+            }
+            String locationSetting = cursor.getString(0);
+            synchronized (mLocationSettings) {
+                mLocationSettings.put(locationId, locationSetting);
+            }
+            return locationSetting;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private void clearLocationSettings() {
+        synchronized (mLocationSettings) {
+            mLocationSettings.clear();
+        }
+    }
+
+    private void notifyWeatherChanged(SQLiteDatabase db, Collection<Long> locationIds) {
+        notifyChanges(getWeatherUris(db, locationIds));
+    }
+
+    private void notifyChange(Uri uri) {
+        HashSet<Uri> uris = new HashSet<Uri>();
+        uris.add(uri);
+        notifyChanges(uris);
+    }
+
+    /**
+     * Sends the notifications, or holds them until the end of the batch running on this thread.
+     * When the base weather URI is notified, the weather/<location> ones it covers are dropped.
+     * The forecast snapshots of the notified URIs are invalidated along the way.
+     */
+    private void notifyChanges(Set<Uri> uris) {
+        Batch batch = mBatch.get();
+        if (batch != null) {
+            batch.mNotifications.addAll(uris);
+            return;
+        }
+        boolean allWeather = uris.contains(WeatherContract.WeatherEntry.CONTENT_URI);
+        for (Uri uri : uris) {
+            // The cached snapshots go stale at the same time as the observers' cursors.
+            if (sUriMatcher.match(uri) == WEATHER_WITH_LOCATION) {
+                if (allWeather) {
+                    continue;
+                }
+                ForecastSnapshot.invalidate(
+                        WeatherContract.WeatherEntry.getLocationSettingFromUri(uri));
+            } else {
+                ForecastSnapshot.invalidateAll();
+            }
+            getContext().getContentResolver().notifyChange(uri, null);
+        }
+    }
+
     // You do not need to call this method. This is a method specifically to assist the testing
     // framework in running smoothly. You can read more at:
     // http://developer.android.com/reference/android/content/ContentProvider.html#shutdown()
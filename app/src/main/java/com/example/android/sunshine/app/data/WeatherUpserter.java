@@ -0,0 +1,261 @@
+package com.example.android.sunshine.app.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+
+import com.example.android.sunshine.app.data.WeatherContract.WeatherEntry;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+
+/**
+ * Writes weather rows inside a transaction owned by the caller.  Each row is compared with the
+ * one already stored for the same location and date, and only rows whose values differ are
+ * written: new days are inserted, changed days are updated in place (keeping their _id), and
+ * identical days are left alone.
+ *
+ * Complete rows, which is what the sync adapter writes, take a fast path: they are compared,
+ * inserted and updated with statements compiled once per upserter, with the values bound
+ * directly, so no Cursor or ContentValues copy is made for them.  An upserter must be closed once
+ * the transaction is over.
+ */
+class WeatherUpserter {
+
+    // The columns of a complete row besides the location key and date, in the order they are
+    // bound in each of the statements below.
+    private static final String[] ROW_COLUMNS = {
+            WeatherEntry.COLUMN_WEATHER_ID,
+            WeatherEntry.COLUMN_SHORT_DESC,
+            WeatherEntry.COLUMN_MIN_TEMP,
+            WeatherEntry.COLUMN_MAX_TEMP,
+            WeatherEntry.COLUMN_HUMIDITY,
+            WeatherEntry.COLUMN_PRESSURE,
+            WeatherEntry.COLUMN_WIND_SPEED,
+            WeatherEntry.COLUMN_DEGREES
+    };
+
+    private static final String ROW_SELECTION =
+            WeatherEntry.COLUMN_LOC_KEY + " = ? AND " + WeatherEntry.COLUMN_DATE + " = ?";
+
+    // Binds the row's columns, then the location key and date.
+    private static final String INSERT_SQL = "INSERT INTO " + WeatherEntry.TABLE_NAME + " (" +
+            joinColumns("", ", ") + ", " +
+            WeatherEntry.COLUMN_LOC_KEY + ", " +
+            WeatherEntry.COLUMN_DATE +
+            ") VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    // Binds the row's columns, then the location key and date.  Gives 0 if the day isn't
+    // stored, -_id if the stored row has the same values, and _id if it differs.  A stored
+    // NULL never compares equal, so such a row is rewritten.
+    private static final String COMPARE_SQL = "SELECT IFNULL((SELECT CASE WHEN " +
+            joinColumns(" = ?", " AND ") +
+            " THEN -" + WeatherEntry._ID + " ELSE " + WeatherEntry._ID + " END" +
+            " FROM " + WeatherEntry.TABLE_NAME +
+            " WHERE " + ROW_SELECTION + "), 0)";
+
+    // Binds the row's columns, then the _id.
+    private static final String UPDATE_SQL = "UPDATE " + WeatherEntry.TABLE_NAME +
+            " SET " + joinColumns(" = ?", ", ") +
+            " WHERE " + WeatherEntry._ID + " = ?";
+
+    private final SQLiteDatabase mDb;
+    private final TimeZone mTimeZone = TimeZone.getDefault();
+    private SQLiteStatement mInsert;
+    private SQLiteStatement mCompare;
+    private SQLiteStatement mUpdate;
+
+    int mInserted;
+    int mUpdated;
+    int mUnchanged;
+
+    // Locations that had at least one row inserted or updated.
+    final HashSet<Long> mChangedLocationIds = new HashSet<Long>();
+
+    WeatherUpserter(SQLiteDatabase db) {
+        mDb = db;
+    }
+
+    int getWrittenCount() {
+        return mInserted + mUpdated;
+    }
+
+    void close() {
+        if (mInsert != null) {
+            mInsert.close();
+            mInsert = null;
+        }
+        if (mCompare != null) {
+            mCompare.close();
+            mCompare = null;
+        }
+        if (mUpdate != null) {
+            mUpdate.close();
+            mUpdate = null;
+        }
+    }
+
+    /**
+     * Normalizes the date of a row, then inserts or updates it.
+     *
+     * @return the _id of the row, or -1 if it could not be written.
+     */
+    long upsert(ContentValues values) {
+        Long locationId = values.getAsLong(WeatherEntry.COLUMN_LOC_KEY);
+        Long date = values.getAsLong(WeatherEntry.COLUMN_DATE);
+        if (locationId == null || date == null) {
+            // Can't be matched with a stored row; let the constraints have their say.
+            return insert(values, locationId);
+        }
+        date = WeatherContract.normalizeDate(date, mTimeZone);
+        values.put(WeatherEntry.COLUMN_DATE, date);
+
+        if (isCompleteRow(values)) {
+            return upsertCompleteRow(values, locationId, date);
+        }
+
+        Set<Map.Entry<String, Object>> valueSet = values.valueSet();
+        String[] projection = new String[valueSet.size() + 1];
+        projection[0] = WeatherEntry._ID;
+        int i = 1;
+        for (Map.Entry<String, Object> entry : valueSet) {
+            projection[i++] = entry.getKey();
+        }
+
+        Cursor cursor = mDb.query(WeatherEntry.TABLE_NAME,
+                projection,
+                ROW_SELECTION,
+                new String[]{Long.toString(locationId), Long.toString(date)},
+                null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return insert(values, locationId);
+            }
+            long id = cursor.getLong(0);
+            if (matches(cursor, projection, values)) {
+                mUnchanged++;
+                return id;
+            }
+            mDb.update(WeatherEntry.TABLE_NAME, values, WeatherEntry._ID + " = ?",
+                    new String[]{Long.toString(id)});
+            mUpdated++;
+            mChangedLocationIds.add(locationId);
+            return id;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long insert(ContentValues values, Long locationId) {
+        long id = mDb.insert(WeatherEntry.TABLE_NAME, null, values);
+        if (id != -1) {
+            mInserted++;
+            if (locationId != null) {
+                mChangedLocationIds.add(locationId);
+            }
+        }
+        return id;
+    }
+
+    private long upsertCompleteRow(ContentValues values, long locationId, long date) {
+        if (mCompare == null) {
+            mCompare = mDb.compileStatement(COMPARE_SQL);
+        }
+        bindRow(mCompare, values);
+        mCompare.bindLong(ROW_COLUMNS.length + 1, locationId);
+        mCompare.bindLong(ROW_COLUMNS.length + 2, date);
+        long stored = mCompare.simpleQueryForLong();
+
+        if (stored < 0) {
+            mUnchanged++;
+            return -stored;
+        }
+        if (stored > 0) {
+            if (mUpdate == null) {
+                mUpdate = mDb.compileStatement(UPDATE_SQL);
+            }
+            bindRow(mUpdate, values);
+            mUpdate.bindLong(ROW_COLUMNS.length + 1, stored);
+            mUpdate.executeUpdateDelete();
+            mUpdated++;
+            mChangedLocationIds.add(locationId);
+            return stored;
+        }
+
+        if (mInsert == null) {
+            mInsert = mDb.compileStatement(INSERT_SQL);
+        }
+        bindRow(mInsert, values);
+        mInsert.bindLong(ROW_COLUMNS.length + 1, locationId);
+        mInsert.bindLong(ROW_COLUMNS.length + 2, date);
+        long id = mInsert.executeInsert();
+        if (id != -1) {
+            mInserted++;
+            mChangedLocationIds.add(locationId);
+        }
+        return id;
+    }
+
+    // Binds the values of ROW_COLUMNS to the first arguments of a statement.
+    private static void bindRow(SQLiteStatement statement, ContentValues values) {
+        statement.bindLong(1, values.getAsLong(WeatherEntry.COLUMN_WEATHER_ID));
+        statement.bindString(2, values.getAsString(WeatherEntry.COLUMN_SHORT_DESC));
+        statement.bindDouble(3, values.getAsDouble(WeatherEntry.COLUMN_MIN_TEMP));
+        statement.bindDouble(4, values.getAsDouble(WeatherEntry.COLUMN_MAX_TEMP));
+        statement.bindDouble(5, values.getAsDouble(WeatherEntry.COLUMN_HUMIDITY));
+        statement.bindDouble(6, values.getAsDouble(WeatherEntry.COLUMN_PRESSURE));
+        statement.bindDouble(7, values.getAsDouble(WeatherEntry.COLUMN_WIND_SPEED));
+        statement.bindDouble(8, values.getAsDouble(WeatherEntry.COLUMN_DEGREES));
+    }
+
+    // Each of ROW_COLUMNS followed by the suffix, joined by the separator.
+    private static String joinColumns(String suffix, String separator) {
+        StringBuilder builder = new StringBuilder();
+        for (String column : ROW_COLUMNS) {
+            if (builder.length() > 0) {
+                builder.append(separator);
+            }
+            builder.append(column).append(suffix);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * A complete row holds a non-null value for every column of ROW_COLUMNS, plus the location
+     * key and date, and nothing else.
+     */
+    private static boolean isCompleteRow(ContentValues values) {
+        if (values.size() != ROW_COLUMNS.length + 2) {
+            return false;
+        }
+        for (String column : ROW_COLUMNS) {
+            if (values.get(column) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compares the stored row under the cursor with the values to write.  Numbers are compared
+     * as the doubles SQLite hands back, so an int humidity matches its REAL column.
+     */
+    private static boolean matches(Cursor cursor, String[] projection, ContentValues values) {
+        for (int i = 1; i < projection.length; i++) {
+            Object value = values.get(projection[i]);
+            if (value == null) {
+                if (!cursor.isNull(i)) return false;
+            } else if (cursor.isNull(i)) {
+                return false;
+            } else if (value instanceof Number) {
+                if (((Number) value).doubleValue() != cursor.getDouble(i)) return false;
+            } else if (!value.toString().equals(cursor.getString(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,199 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.net.Uri;
+import android.text.format.Time;
+import android.util.Log;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+
+/**
+ * Fetches and parses the forecast of one location.  The task only touches the network, so
+ * several of them can run at once; the rows it collects carry no location key yet and are stored
+ * by {@link SunshineSyncAdapter} once every fetch of the sync is done.
+ */
+class ForecastFetchTask implements Callable<ForecastFetchTask>, ForecastJsonParser.Listener {
+    private static final String LOG_TAG = ForecastFetchTask.class.getSimpleName();
+
+    static final int NUM_DAYS = 14;
+
+    final String mLocationSetting;
+    private final String mApiKey;
+    private final HttpValidators mValidators;
+
+    final int mJulianStartDay;
+    private final Time mDayTime;
+
+    // Results, valid once call() returns.
+    @SunshineSyncAdapter.LocationStatus int mLocationStatus =
+            SunshineSyncAdapter.LOCATION_STATUS_UNKNOWN;
+    boolean mNotModified;
+    HttpValidators mResponseValidators;
+    String mCityName;
+    double mCityLatitude;
+    double mCityLongitude;
+    final ArrayList<ContentValues> mRows = new ArrayList<ContentValues>(NUM_DAYS);
+
+    /**
+     * @param validators validators of the stored forecast, to make the request conditional.  May
+     *                   be null.
+     */
+    ForecastFetchTask(String locationSetting, String apiKey, HttpValidators validators) {
+        mLocationSetting = locationSetting;
+        mApiKey = apiKey;
+        mValidators = validators;
+
+        // OWM returns daily forecasts based upon the local time of the city that is being
+        // asked for, which means that we need to know the GMT offset to translate this data
+        // properly.
+
+        // Since this data is also sent in-order and the first day is always the
+        // current day, we're going to take advantage of that to get a nice
+        // normalized UTC date for all of our weather.
+
+        Time dayTime = new Time();
+        dayTime.setToNow();
+
+        // we start at the day returned by local time. Otherwise this is a mess.
+        mJulianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
+
+        // now we work exclusively in UTC
+        mDayTime = new Time();
+    }
+
+    /**
+     * @return the normalized date of the day before the first day of this forecast.
+     */
+    long getDayBeforeStart() {
+        return mDayTime.setJulianDay(mJulianStartDay - 1);
+    }
+
+    boolean hasRowsToStore() {
+        return mLocationStatus == SunshineSyncAdapter.LOCATION_STATUS_OK && !mRows.isEmpty();
+    }
+
+    @Override
+    public ForecastFetchTask call() {
+        // This needs to be declared outside the try/catch
+        // so that it can be closed in the finally block.
+        HttpURLConnection urlConnection = null;
+
+        String format = "json";
+        String units = "metric";
+
+        try {
+            // Construct the URL for the OpenWeatherMap query
+            // Possible parameters are avaiable at OWM's forecast API page, at
+            // http://openweathermap.org/API#forecast
+            final String FORECAST_BASE_URL =
+                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
+            final String QUERY_PARAM = "q";
+            final String FORMAT_PARAM = "mode";
+            final String UNITS_PARAM = "units";
+            final String DAYS_PARAM = "cnt";
+
+            final String API_KEY_PARAM = "APPID";
+
+            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
+                    .appendQueryParameter(QUERY_PARAM, mLocationSetting)
+                    .appendQueryParameter(FORMAT_PARAM, format)
+                    .appendQueryParameter(UNITS_PARAM, units)
+                    .appendQueryParameter(DAYS_PARAM, Integer.toString(NUM_DAYS))
+                    .appendQueryParameter(API_KEY_PARAM, mApiKey)
+                    .build();
+
+            URL url = new URL(builtUri.toString());
+            long now = System.currentTimeMillis();
+
+            // Create the request to OpenWeatherMap, and open the connection
+            urlConnection = (HttpURLConnection) url.openConnection();
+            urlConnection.setRequestMethod("GET");
+            if (mValidators != null) {
+                mValidators.applyTo(urlConnection);
+            }
+            urlConnection.connect();
+
+            if (urlConnection.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                // Nothing changed since the last sync, so the stored rows are still current.
+                mNotModified = true;
+                mResponseValidators = HttpValidators.fromResponse(urlConnection, mValidators, now);
+                mLocationStatus = SunshineSyncAdapter.LOCATION_STATUS_OK;
+                return this;
+            }
+
+            InputStream inputStream = urlConnection.getInputStream();
+            if (inputStream == null) {
+                // Nothing to do.
+                return this;
+            }
+            // The response is parsed straight off the connection, so neither the raw body nor
+            // a JSON object tree is ever held in memory.
+            int messageCode = ForecastJsonParser.parse(inputStream, this);
+
+            // do we have an error?
+            switch (messageCode) {
+                case HttpURLConnection.HTTP_OK:
+                    mResponseValidators = HttpValidators.fromResponse(urlConnection, null, now);
+                    mLocationStatus = SunshineSyncAdapter.LOCATION_STATUS_OK;
+                    break;
+                case HttpURLConnection.HTTP_NOT_FOUND:
+                    mLocationStatus = SunshineSyncAdapter.LOCATION_STATUS_INVALID;
+                    break;
+                default:
+                    mLocationStatus = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+                    break;
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Error fetching " + mLocationSetting, e);
+            // If the code didn't successfully get the weather data, there's no point in attempting
+            // to parse it.
+            mLocationStatus = SunshineSyncAdapter.LOCATION_STATUS_SERVER_DOWN;
+        } catch (JSONException e) {
+            Log.e(LOG_TAG, e.getMessage(), e);
+            mLocationStatus = SunshineSyncAdapter.LOCATION_STATUS_SERVER_INVALID;
+        } finally {
+            if (urlConnection != null) {
+                urlConnection.disconnect();
+            }
+        }
+        return this;
+    }
+
+    @Override
+    public void onCity(String cityName, double lat, double lon) {
+        mCityName = cityName;
+        mCityLatitude = lat;
+        mCityLongitude = lon;
+    }
+
+    @Override
+    public void onDay(int index, double pressure, int humidity, double windSpeed,
+                      double windDirection, double high, double low, String description,
+                      int weatherId) {
+        // Cheating to convert this to UTC time, which is what we want anyhow
+        long dateTime = mDayTime.setJulianDay(mJulianStartDay + index);
+
+        ContentValues weatherValues = new ContentValues();
+
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
+        weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
+
+        mRows.add(weatherValues);
+    }
+}
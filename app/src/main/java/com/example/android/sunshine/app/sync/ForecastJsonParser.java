@@ -0,0 +1,232 @@
+package com.example.android.sunshine.app.sync;
+
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.MalformedJsonException;
+
+import org.json.JSONException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+
+/**
+ * Pull parser for the OpenWeatherMap daily forecast response.  Values are handed to a
+ * {@link Listener} as soon as they are read off the stream, so the body is never held in
+ * memory as a String or as a JSONObject tree.
+ */
+class ForecastJsonParser {
+
+    // These are the names of the JSON objects that need to be extracted.
+
+    // Location information
+    private static final String OWM_CITY = "city";
+    private static final String OWM_CITY_NAME = "name";
+    private static final String OWM_COORD = "coord";
+
+    // Location coordinate
+    private static final String OWM_LATITUDE = "lat";
+    private static final String OWM_LONGITUDE = "lon";
+
+    // Weather information.  Each day's forecast info is an element of the "list" array.
+    private static final String OWM_LIST = "list";
+
+    private static final String OWM_PRESSURE = "pressure";
+    private static final String OWM_HUMIDITY = "humidity";
+    private static final String OWM_WINDSPEED = "speed";
+    private static final String OWM_WIND_DIRECTION = "deg";
+
+    // All temperatures are children of the "temp" object.
+    private static final String OWM_TEMPERATURE = "temp";
+    private static final String OWM_MAX = "max";
+    private static final String OWM_MIN = "min";
+
+    private static final String OWM_WEATHER = "weather";
+    private static final String OWM_DESCRIPTION = "main";
+    private static final String OWM_WEATHER_ID = "id";
+
+    private static final String OWM_MESSAGE_CODE = "cod";
+
+    /**
+     * Receives the parsed values in stream order.  OWM sends "city" before "list", but the
+     * listener must not rely on it.
+     */
+    interface Listener {
+        void onCity(String cityName, double lat, double lon);
+
+        void onDay(int index, double pressure, int humidity, double windSpeed,
+                   double windDirection, double high, double low, String description,
+                   int weatherId);
+    }
+
+    private ForecastJsonParser() {
+    }
+
+    /**
+     * Parses the forecast read from the given stream.  The stream is closed on return.
+     *
+     * @return the "cod" message code of the response, or {@link HttpURLConnection#HTTP_OK} if
+     * the response doesn't carry one.
+     * @throws IOException if the stream could not be read
+     * @throws JSONException if the stream is not a well formed forecast
+     */
+    static int parse(InputStream in, Listener listener) throws IOException, JSONException {
+        JsonReader reader = new JsonReader(new InputStreamReader(in, "UTF-8"));
+        try {
+            return readForecast(reader, listener);
+        } catch (MalformedJsonException | IllegalStateException | NumberFormatException e) {
+            JSONException jsonException = new JSONException(e.getMessage());
+            jsonException.initCause(e);
+            throw jsonException;
+        } finally {
+            reader.close();
+        }
+    }
+
+    private static int readForecast(JsonReader reader, Listener listener)
+            throws IOException, JSONException {
+        int messageCode = HttpURLConnection.HTTP_OK;
+        boolean hasCity = false;
+        boolean hasList = false;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_MESSAGE_CODE.equals(name)) {
+                messageCode = reader.nextInt();
+            } else if (OWM_CITY.equals(name)) {
+                readCity(reader, listener);
+                hasCity = true;
+            } else if (OWM_LIST.equals(name)) {
+                readList(reader, listener);
+                hasList = true;
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (messageCode == HttpURLConnection.HTTP_OK && (!hasCity || !hasList)) {
+            throw new JSONException("Forecast is missing " + (hasCity ? OWM_LIST : OWM_CITY));
+        }
+        return messageCode;
+    }
+
+    private static void readCity(JsonReader reader, Listener listener) throws IOException {
+        String cityName = null;
+        double lat = 0;
+        double lon = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_CITY_NAME.equals(name)) {
+                cityName = reader.nextString();
+            } else if (OWM_COORD.equals(name)) {
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String coordName = reader.nextName();
+                    if (OWM_LATITUDE.equals(coordName)) {
+                        lat = reader.nextDouble();
+                    } else if (OWM_LONGITUDE.equals(coordName)) {
+                        lon = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        listener.onCity(cityName, lat, lon);
+    }
+
+    private static void readList(JsonReader reader, Listener listener)
+            throws IOException, JSONException {
+        int index = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            readDay(reader, index++, listener);
+        }
+        reader.endArray();
+    }
+
+    private static void readDay(JsonReader reader, int index, Listener listener)
+            throws IOException, JSONException {
+        double pressure = 0;
+        int humidity = 0;
+        double windSpeed = 0;
+        double windDirection = 0;
+
+        double high = 0;
+        double low = 0;
+
+        String description = null;
+        int weatherId = 0;
+
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (OWM_PRESSURE.equals(name)) {
+                pressure = reader.nextDouble();
+            } else if (OWM_HUMIDITY.equals(name)) {
+                humidity = reader.nextInt();
+            } else if (OWM_WINDSPEED.equals(name)) {
+                windSpeed = reader.nextDouble();
+            } else if (OWM_WIND_DIRECTION.equals(name)) {
+                windDirection = reader.nextDouble();
+            } else if (OWM_TEMPERATURE.equals(name)) {
+                // Temperatures are in a child object called "temp".  Try not to name variables
+                // "temp" when working with temperature.  It confuses everybody.
+                reader.beginObject();
+                while (reader.hasNext()) {
+                    String temperatureName = reader.nextName();
+                    if (OWM_MAX.equals(temperatureName)) {
+                        high = reader.nextDouble();
+                    } else if (OWM_MIN.equals(temperatureName)) {
+                        low = reader.nextDouble();
+                    } else {
+                        reader.skipValue();
+                    }
+                }
+                reader.endObject();
+            } else if (OWM_WEATHER.equals(name)) {
+                // Description is in a child array called "weather", which is 1 element long.
+                // That element also contains a weather code.
+                reader.beginArray();
+                while (reader.hasNext()) {
+                    if (description != null || reader.peek() != JsonToken.BEGIN_OBJECT) {
+                        reader.skipValue();
+                        continue;
+                    }
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        String weatherName = reader.nextName();
+                        if (OWM_DESCRIPTION.equals(weatherName)) {
+                            description = reader.nextString();
+                        } else if (OWM_WEATHER_ID.equals(weatherName)) {
+                            weatherId = reader.nextInt();
+                        } else {
+                            reader.skipValue();
+                        }
+                    }
+                    reader.endObject();
+                }
+                reader.endArray();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+
+        if (description == null) {
+            throw new JSONException("Day " + index + " has no " + OWM_WEATHER);
+        }
+        listener.onDay(index, pressure, humidity, windSpeed, windDirection, high, low,
+                description, weatherId);
+    }
+}
@@ -0,0 +1,121 @@
+package com.example.android.sunshine.app.sync;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.text.TextUtils;
+
+import com.example.android.sunshine.app.data.WeatherContract;
+
+import java.net.HttpURLConnection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * HTTP cache validators of the last forecast stored for a location.  They are kept in the
+ * location table so the next sync can issue a conditional GET, and skip the request altogether
+ * while the response is still fresh according to its max-age.
+ */
+class HttpValidators {
+
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_CACHE_CONTROL = "Cache-Control";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+    private static final String MAX_AGE = "max-age=";
+
+    static final String[] PROJECTION = {
+            WeatherContract.LocationEntry.COLUMN_ETAG,
+            WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED,
+            WeatherContract.LocationEntry.COLUMN_EXPIRES
+    };
+    // these indices must match the projection
+    private static final int INDEX_ETAG = 0;
+    private static final int INDEX_LAST_MODIFIED = 1;
+    private static final int INDEX_EXPIRES = 2;
+
+    final String mETag;
+    final String mLastModified;
+    final long mExpires;
+
+    private HttpValidators(String eTag, String lastModified, long expires) {
+        mETag = eTag;
+        mLastModified = lastModified;
+        mExpires = expires;
+    }
+
+    /**
+     * Reads the validators from the current row of a cursor built with {@link #PROJECTION}.
+     *
+     * @return the validators, or null if the row holds none.
+     */
+    static HttpValidators fromCursor(Cursor cursor) {
+        String eTag = cursor.getString(INDEX_ETAG);
+        String lastModified = cursor.getString(INDEX_LAST_MODIFIED);
+        long expires = cursor.getLong(INDEX_EXPIRES);
+        if (eTag == null && lastModified == null && expires == 0) {
+            return null;
+        }
+        return new HttpValidators(eTag, lastModified, expires);
+    }
+
+    /**
+     * Reads the validators of a 200 or 304 response.  A 304 may omit headers that haven't
+     * changed, in which case the previous values are kept.
+     */
+    static HttpValidators fromResponse(HttpURLConnection connection, HttpValidators previous,
+                                       long now) {
+        String eTag = connection.getHeaderField(HEADER_ETAG);
+        String lastModified = connection.getHeaderField(HEADER_LAST_MODIFIED);
+        if (previous != null) {
+            if (eTag == null) eTag = previous.mETag;
+            if (lastModified == null) lastModified = previous.mLastModified;
+        }
+        long maxAge = parseMaxAge(connection.getHeaderField(HEADER_CACHE_CONTROL));
+        long expires = maxAge > 0 ? now + TimeUnit.SECONDS.toMillis(maxAge) : 0;
+        return new HttpValidators(eTag, lastModified, expires);
+    }
+
+    /**
+     * Returns the "max-age" directive of a Cache-Control header in seconds, or 0 if it has none.
+     */
+    static long parseMaxAge(String cacheControl) {
+        if (TextUtils.isEmpty(cacheControl)) {
+            return 0;
+        }
+        for (String directive : cacheControl.split(",")) {
+            directive = directive.trim();
+            if (directive.startsWith(MAX_AGE)) {
+                try {
+                    return Math.max(0, Long.parseLong(directive.substring(MAX_AGE.length())));
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return 0;
+    }
+
+    boolean isFresh(long now) {
+        return now < mExpires;
+    }
+
+    /**
+     * Turns the request into a conditional GET.
+     */
+    void applyTo(HttpURLConnection connection) {
+        if (mETag != null) {
+            connection.setRequestProperty(HEADER_IF_NONE_MATCH, mETag);
+        }
+        if (mLastModified != null) {
+            connection.setRequestProperty(HEADER_IF_MODIFIED_SINCE, mLastModified);
+        }
+    }
+
+    ContentValues toContentValues() {
+        ContentValues values = new ContentValues();
+        values.put(WeatherContract.LocationEntry.COLUMN_ETAG, mETag);
+        values.put(WeatherContract.LocationEntry.COLUMN_LAST_MODIFIED, mLastModified);
+        values.put(WeatherContract.LocationEntry.COLUMN_EXPIRES, mExpires);
+        return values;
+    }
+}
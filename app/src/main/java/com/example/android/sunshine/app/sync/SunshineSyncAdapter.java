@@ -7,62 +7,48 @@ import android.app.NotificationManager;
 import android.app.PendingIntent;
 import android.content.AbstractThreadedSyncAdapter;
 import android.content.ContentProviderClient;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentResolver;
-import android.content.ContentUris;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
+import android.content.OperationApplicationException;
 import android.content.SharedPreferences;
 import android.content.SyncRequest;
 import android.content.SyncResult;
 import android.content.res.Resources;
 import android.database.Cursor;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.RemoteException;
 import android.preference.PreferenceManager;
 import android.support.annotation.IntDef;
 import android.support.v4.app.NotificationCompat;
 import android.support.v4.app.TaskStackBuilder;
-import android.text.format.Time;
 import android.util.Log;
 
-import com.bumptech.glide.Glide;
 import com.example.android.sunshine.app.MainActivity;
 import com.example.android.sunshine.app.R;
 import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.WeatherArtCache;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
 import com.example.android.sunshine.app.data.WeatherContract;
 import com.example.android.sunshine.app.muzei.WeatherMuzeiSource;
-import com.google.android.gms.common.ConnectionResult;
-import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.ResultCallback;
-import com.google.android.gms.wearable.DataApi;
-import com.google.android.gms.wearable.Node;
-import com.google.android.gms.wearable.PutDataMapRequest;
-import com.google.android.gms.wearable.PutDataRequest;
-import com.google.android.gms.wearable.Wearable;
-
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import java.io.BufferedReader;
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
+import com.example.android.sunshine.app.wear.WearWeatherPublisher;
+
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
-import java.net.HttpURLConnection;
-import java.net.URL;
-import java.util.List;
-import java.util.Vector;
+import java.util.ArrayList;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 
-public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
+public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter {
     public static final String ACTION_DATA_UPDATED =
             "com.example.android.sunshine.app.ACTION_DATA_UPDATED";
     // Interval at which to sync with the weather, in seconds.
@@ -74,51 +60,45 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     public static final int LOCATION_STATUS_SERVER_INVALID = 2;
     public static final int LOCATION_STATUS_UNKNOWN = 3;
     public static final int LOCATION_STATUS_INVALID = 4;
-    private static final String WEAR_PATH = "/weather_info";
-    private static final String LOW_TEMP = "low";
-    private static final String HIGH_TEMP = "high";
-    private static final String IMAGE = "image";
-    private static final String TIMESTAMP = "timestamp";
+    // Sync extra asking to refresh every stored location, not only the preferred one.
+    public static final String SYNC_EXTRAS_ALL_LOCATIONS = "sync_all_locations";
+    // Bounds how many forecast requests are in flight at once in a multi-location sync.
+    private static final int MAX_CONCURRENT_FETCHES = 4;
+    private static final ThreadPoolExecutor sFetchExecutor = new ThreadPoolExecutor(
+            MAX_CONCURRENT_FETCHES, MAX_CONCURRENT_FETCHES, 30, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>());
+    static {
+        sFetchExecutor.allowCoreThreadTimeOut(true);
+    }
     private static final long DAY_IN_MILLIS = 1000 * 60 * 60 * 24;
     private static final int WEATHER_NOTIFICATION_ID = 3004;
-    private static final String[] NOTIFY_WEATHER_PROJECTION = new String[] {
-            WeatherContract.WeatherEntry.COLUMN_WEATHER_ID,
-            WeatherContract.WeatherEntry.COLUMN_MAX_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_MIN_TEMP,
-            WeatherContract.WeatherEntry.COLUMN_SHORT_DESC
-    };
-    // these indices must match the projection
-    private static final int INDEX_WEATHER_ID = 0;
-    private static final int INDEX_MAX_TEMP = 1;
-    private static final int INDEX_MIN_TEMP = 2;
-    private static final int INDEX_SHORT_DESC = 3;
     public final String LOG_TAG = SunshineSyncAdapter.class.getSimpleName();
-    private GoogleApiClient mGoogleApiClient;
     public SunshineSyncAdapter(Context context, boolean autoInitialize) {
         super(context, autoInitialize);
-        mGoogleApiClient = new GoogleApiClient.Builder(context)
-                .addConnectionCallbacks(this)
-                .addOnConnectionFailedListener(this)
-                .addApi(Wearable.API)
-                .build();
     }
 
     /**
-     * Helper method to schedule the sync adapter periodic execution
+     * Helper method to schedule the sync adapter periodic execution.  Periodic syncs refresh
+     * every stored location, each one only if its last forecast is no longer fresh.
      */
     public static void configurePeriodicSync(Context context, int syncInterval, int flexTime) {
         Account account = getSyncAccount(context);
         String authority = context.getString(R.string.content_authority);
+        // Periodic syncs are told apart by their extras, so the one scheduled by earlier
+        // versions, without extras, would otherwise keep running next to this one.
+        ContentResolver.removePeriodicSync(account, authority, new Bundle());
+        Bundle extras = new Bundle();
+        extras.putBoolean(SYNC_EXTRAS_ALL_LOCATIONS, true);
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
             // we can enable inexact timers in our periodic sync
             SyncRequest request = new SyncRequest.Builder().
                     syncPeriodic(syncInterval, flexTime).
                     setSyncAdapter(account, authority).
-                    setExtras(new Bundle()).build();
+                    setExtras(extras).build();
             ContentResolver.requestSync(request);
         } else {
             ContentResolver.addPeriodicSync(account,
-                    authority, new Bundle(), syncInterval);
+                    authority, extras, syncInterval);
         }
     }
 
@@ -191,7 +171,11 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
     }
 
     public static void initializeSyncAdapter(Context context) {
-        getSyncAccount(context);
+        if (getSyncAccount(context) == null) {
+            return;
+        }
+        // Also moves installs whose periodic sync predates the all locations one over to it.
+        configurePeriodicSync(context, SYNC_INTERVAL, SYNC_FLEXTIME);
     }
 
     /**
@@ -207,386 +191,213 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
         spe.commit();
     }
 
-    @Override
-    public void onConnected(Bundle bundle) {
-
-    }
-
-    @Override
-    public void onConnectionSuspended(int i) {
-
-    }
-
-    @Override
-    public void onConnectionFailed(ConnectionResult connectionResult) {
-
-    }
-
     @Override
     public void onPerformSync(Account account, Bundle extras, String authority, ContentProviderClient provider, SyncResult syncResult) {
         Log.d(LOG_TAG, "Starting sync");
-        String locationQuery = Utility.getPreferredLocation(getContext());
-
-        mGoogleApiClient.connect();
-
-        // These two need to be declared outside the try/catch
-        // so that they can be closed in the finally block.
-        HttpURLConnection urlConnection = null;
-        BufferedReader reader = null;
-
-        // Will contain the raw JSON response as a string.
-        String forecastJsonStr;
-
-        String format = "json";
-        String units = "metric";
-        int numDays = 14;
-
-        try {
-            // Construct the URL for the OpenWeatherMap query
-            // Possible parameters are avaiable at OWM's forecast API page, at
-            // http://openweathermap.org/API#forecast
-            final String FORECAST_BASE_URL =
-                    "http://api.openweathermap.org/data/2.5/forecast/daily?";
-            final String QUERY_PARAM = "q";
-            final String FORMAT_PARAM = "mode";
-            final String UNITS_PARAM = "units";
-            final String DAYS_PARAM = "cnt";
-
-            final String API_KEY_PARAM = "APPID";
-
-            Uri builtUri = Uri.parse(FORECAST_BASE_URL).buildUpon()
-                    .appendQueryParameter(QUERY_PARAM, locationQuery)
-                    .appendQueryParameter(FORMAT_PARAM, format)
-                    .appendQueryParameter(UNITS_PARAM, units)
-                    .appendQueryParameter(DAYS_PARAM, Integer.toString(numDays))
-                    .appendQueryParameter(API_KEY_PARAM, getContext().getString(R.string.api_key))
-                    .build();
-
-            URL url = new URL(builtUri.toString());
-
-            // Create the request to OpenWeatherMap, and open the connection
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setRequestMethod("GET");
-            urlConnection.connect();
+        String preferredLocation = Utility.getPreferredLocation(getContext());
+        boolean manualSync = extras.getBoolean(ContentResolver.SYNC_EXTRAS_MANUAL, false);
+        long now = System.currentTimeMillis();
+
+        ArrayList<String> locations = new ArrayList<String>();
+        locations.add(preferredLocation);
+        if (extras.getBoolean(SYNC_EXTRAS_ALL_LOCATIONS, false)) {
+            addSavedLocations(locations);
+        }
 
-            // Read the input stream into a String
-            InputStream inputStream = urlConnection.getInputStream();
-            StringBuilder buffer = new StringBuilder();
-            if (inputStream == null) {
-                // Nothing to do.
-                return;
-            }
-            reader = new BufferedReader(new InputStreamReader(inputStream));
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                // Since it's JSON, adding a newline isn't necessary (it won't affect parsing)
-                // But it does make debugging a *lot* easier if you print out the completed
-                // buffer for debugging.
-                buffer.append(line).append("\n");
+        String apiKey = getContext().getString(R.string.api_key);
+        ArrayList<ForecastFetchTask> tasks = new ArrayList<ForecastFetchTask>(locations.size());
+        for (String location : locations) {
+            // Periodic syncs trust the max-age of the last response; manual ones always
+            // revalidate.
+            HttpValidators validators = loadValidators(location);
+            if (validators != null && validators.isFresh(now) && !manualSync) {
+                continue;
             }
+            tasks.add(new ForecastFetchTask(location, apiKey, validators));
+        }
+        if (tasks.isEmpty()) {
+            Log.d(LOG_TAG, "Sync Complete. Forecast still fresh");
+            return;
+        }
 
-            if (buffer.length() == 0) {
-                // Stream was empty.  No point in parsing.
-                setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                return;
-            }
-            forecastJsonStr = buffer.toString();
-            getWeatherDataFromJson(forecastJsonStr, locationQuery);
-        } catch (IOException e) {
-            Log.e(LOG_TAG, "Error ", e);
-            // If the code didn't successfully get the weather data, there's no point in attempting
-            // to parse it.
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
-        } finally {
-            if (urlConnection != null) {
-                urlConnection.disconnect();
-            }
-            if (reader != null) {
-                try {
-                    reader.close();
-                } catch (final IOException e) {
-                    Log.e(LOG_TAG, "Error closing stream", e);
-                }
-            }
+        try {
+            fetchForecasts(tasks);
+        } catch (InterruptedException e) {
+            // The sync was cancelled.
+            Thread.currentThread().interrupt();
+            return;
         }
-        return;
+        storeForecasts(tasks, preferredLocation);
     }
 
     /**
-     * Take the String representing the complete forecast in JSON Format and
-     * pull out the data we need to construct the Strings needed for the wireframes.
-     *
-     * Fortunately parsing is easy:  constructor takes the JSON string and converts it
-     * into an Object hierarchy for us.
+     * Adds every location already stored in the database to the list, skipping duplicates.
      */
-    private void getWeatherDataFromJson(String forecastJsonStr,
-                                        String locationSetting)
-            throws JSONException {
-
-        Log.d(this.getClass().getSimpleName(), "JSON DATA: " + forecastJsonStr);
-
-        // Now we have a String representing the complete forecast in JSON Format.
-        // Fortunately parsing is easy:  constructor takes the JSON string and converts it
-        // into an Object hierarchy for us.
-
-        // These are the names of the JSON objects that need to be extracted.
-
-        // Location information
-        final String OWM_CITY = "city";
-        final String OWM_CITY_NAME = "name";
-        final String OWM_COORD = "coord";
-
-        // Location coordinate
-        final String OWM_LATITUDE = "lat";
-        final String OWM_LONGITUDE = "lon";
-
-        // Weather information.  Each day's forecast info is an element of the "list" array.
-        final String OWM_LIST = "list";
-
-        final String OWM_PRESSURE = "pressure";
-        final String OWM_HUMIDITY = "humidity";
-        final String OWM_WINDSPEED = "speed";
-        final String OWM_WIND_DIRECTION = "deg";
-
-        // All temperatures are children of the "temp" object.
-        final String OWM_TEMPERATURE = "temp";
-        final String OWM_MAX = "max";
-        final String OWM_MIN = "min";
-
-        final String OWM_WEATHER = "weather";
-        final String OWM_DESCRIPTION = "main";
-        final String OWM_WEATHER_ID = "id";
-
-        final String OWM_MESSAGE_CODE = "cod";
-
+    private void addSavedLocations(ArrayList<String> locations) {
+        Cursor cursor = getContext().getContentResolver().query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                new String[]{WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING},
+                null, null, null);
+        if (cursor == null) {
+            return;
+        }
         try {
-            JSONObject forecastJson = new JSONObject(forecastJsonStr);
-
-            // do we have an error?
-            if ( forecastJson.has(OWM_MESSAGE_CODE) ) {
-                int errorCode = forecastJson.getInt(OWM_MESSAGE_CODE);
-
-                switch (errorCode) {
-                    case HttpURLConnection.HTTP_OK:
-                        break;
-                    case HttpURLConnection.HTTP_NOT_FOUND:
-                        setLocationStatus(getContext(), LOCATION_STATUS_INVALID);
-                        return;
-                    default:
-                        setLocationStatus(getContext(), LOCATION_STATUS_SERVER_DOWN);
-                        return;
+            while (cursor.moveToNext()) {
+                String location = cursor.getString(0);
+                if (!locations.contains(location)) {
+                    locations.add(location);
                 }
             }
+        } finally {
+            cursor.close();
+        }
+    }
 
-            JSONArray weatherArray = forecastJson.getJSONArray(OWM_LIST);
-
-            JSONObject cityJson = forecastJson.getJSONObject(OWM_CITY);
-            String cityName = cityJson.getString(OWM_CITY_NAME);
-
-            JSONObject cityCoord = cityJson.getJSONObject(OWM_COORD);
-            double cityLatitude = cityCoord.getDouble(OWM_LATITUDE);
-            double cityLongitude = cityCoord.getDouble(OWM_LONGITUDE);
-
-            long locationId = addLocation(locationSetting, cityName, cityLatitude, cityLongitude);
-
-            // Insert the new weather information into the database
-            Vector<ContentValues> cVVector = new Vector<ContentValues>(weatherArray.length());
-
-            // OWM returns daily forecasts based upon the local time of the city that is being
-            // asked for, which means that we need to know the GMT offset to translate this data
-            // properly.
-
-            // Since this data is also sent in-order and the first day is always the
-            // current day, we're going to take advantage of that to get a nice
-            // normalized UTC date for all of our weather.
-
-            Time dayTime = new Time();
-            dayTime.setToNow();
-
-            // we start at the day returned by local time. Otherwise this is a mess.
-            int julianStartDay = Time.getJulianDay(System.currentTimeMillis(), dayTime.gmtoff);
-
-            // now we work exclusively in UTC
-            dayTime = new Time();
-
-            for(int i = 0; i < weatherArray.length(); i++) {
-                // These are the values that will be collected.
-                long dateTime;
-                double pressure;
-                int humidity;
-                double windSpeed;
-                double windDirection;
-
-                double high;
-                double low;
-
-                String description;
-                int weatherId;
-
-                // Get the JSON object representing the day
-                JSONObject dayForecast = weatherArray.getJSONObject(i);
-
-                // Cheating to convert this to UTC time, which is what we want anyhow
-                dateTime = dayTime.setJulianDay(julianStartDay+i);
-
-                pressure = dayForecast.getDouble(OWM_PRESSURE);
-                humidity = dayForecast.getInt(OWM_HUMIDITY);
-                windSpeed = dayForecast.getDouble(OWM_WINDSPEED);
-                windDirection = dayForecast.getDouble(OWM_WIND_DIRECTION);
-
-                // Description is in a child array called "weather", which is 1 element long.
-                // That element also contains a weather code.
-                JSONObject weatherObject =
-                        dayForecast.getJSONArray(OWM_WEATHER).getJSONObject(0);
-                description = weatherObject.getString(OWM_DESCRIPTION);
-                weatherId = weatherObject.getInt(OWM_WEATHER_ID);
-
-                // Temperatures are in a child object called "temp".  Try not to name variables
-                // "temp" when working with temperature.  It confuses everybody.
-                JSONObject temperatureObject = dayForecast.getJSONObject(OWM_TEMPERATURE);
-                high = temperatureObject.getDouble(OWM_MAX);
-                low = temperatureObject.getDouble(OWM_MIN);
-
-                ContentValues weatherValues = new ContentValues();
-
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_LOC_KEY, locationId);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DATE, dateTime);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_HUMIDITY, humidity);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_PRESSURE, pressure);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WIND_SPEED, windSpeed);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_DEGREES, windDirection);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MAX_TEMP, high);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_MIN_TEMP, low);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_SHORT_DESC, description);
-                weatherValues.put(WeatherContract.WeatherEntry.COLUMN_WEATHER_ID, weatherId);
-
-                cVVector.add(weatherValues);
-            }
-
-            int inserted = 0;
-            // add to database
-            if ( cVVector.size() > 0 ) {
-                ContentValues[] cvArray = new ContentValues[cVVector.size()];
-                cVVector.toArray(cvArray);
-                getContext().getContentResolver().bulkInsert(WeatherContract.WeatherEntry.CONTENT_URI, cvArray);
-
-                // delete old data so we don't build up an endless history
-                getContext().getContentResolver().delete(WeatherContract.WeatherEntry.CONTENT_URI,
-                        WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
-                        new String[] {Long.toString(dayTime.setJulianDay(julianStartDay-1))});
-
-                updateWatch();
-                updateWidgets();
-                updateMuzei();
-                notifyWeather();
+    /**
+     * Runs the fetches, at most MAX_CONCURRENT_FETCHES of them at a time.  A single fetch runs
+     * on the calling thread.
+     */
+    private void fetchForecasts(ArrayList<ForecastFetchTask> tasks) throws InterruptedException {
+        if (tasks.size() == 1) {
+            tasks.get(0).call();
+            return;
+        }
+        for (Future<ForecastFetchTask> future : sFetchExecutor.invokeAll(tasks)) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                Log.e(LOG_TAG, "Error fetching forecast", e.getCause());
             }
-            Log.d(LOG_TAG, "Sync Complete. " + cVVector.size() + " Inserted");
-            setLocationStatus(getContext(), LOCATION_STATUS_OK);
-
-        } catch (JSONException e) {
-            Log.e(LOG_TAG, e.getMessage(), e);
-            e.printStackTrace();
-            setLocationStatus(getContext(), LOCATION_STATUS_SERVER_INVALID);
         }
     }
 
-    private void updateWatch()
-    {
-        List<Node> connectedNodes =
-                Wearable.NodeApi.getConnectedNodes(mGoogleApiClient).await().getNodes();
-
-        Node node = null;
-        for(Node n: connectedNodes)
-        {
-            if(n.isNearby())
-            {
-                node = n;
-                break;
+    /**
+     * Stores what every fetch brought back with a single batch, which the provider runs as one
+     * transaction: new locations, the forecast rows (only the changed ones are written), the
+     * removal of past days and the cache validators.  The location status and the app's other
+     * surfaces are then updated for the preferred location, the latter only if its forecast
+     * actually changed.
+     */
+    private void storeForecasts(ArrayList<ForecastFetchTask> tasks, String preferredLocation) {
+        ArrayList<ContentProviderOperation> operations = new ArrayList<ContentProviderOperation>();
+        ForecastFetchTask preferredTask = null;
+        int preferredRowsStart = 0;
+        int preferredRowsEnd = 0;
+
+        for (ForecastFetchTask task : tasks) {
+            if (task.mLocationSetting.equals(preferredLocation)) {
+                preferredTask = task;
+            }
+            if (!task.hasRowsToStore()) {
+                continue;
+            }
+            ContentProviderOperation locationInsert = addLocation(task.mLocationSetting,
+                    task.mCityName, task.mCityLatitude, task.mCityLongitude);
+            if (locationInsert != null) {
+                operations.add(locationInsert);
+            }
+            if (task == preferredTask) {
+                preferredRowsStart = operations.size();
+            }
+            for (ContentValues weatherValues : task.mRows) {
+                long date = weatherValues.getAsLong(WeatherContract.WeatherEntry.COLUMN_DATE);
+                operations.add(ContentProviderOperation
+                        .newUpdate(WeatherContract.WeatherEntry.buildWeatherLocationWithDate(
+                                task.mLocationSetting, date))
+                        .withValues(weatherValues)
+                        .build());
+            }
+            if (task == preferredTask) {
+                preferredRowsEnd = operations.size();
             }
         }
 
-        if(node != null)
-        {
-            Context context = getContext();
-            String locationQuery = Utility.getPreferredLocation(context);
-
-            Uri weatherUri = WeatherContract.WeatherEntry
-                    .buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-            // we'll query our contentProvider, as always
-            Cursor cursor = context.getContentResolver().query(weatherUri,
-                    NOTIFY_WEATHER_PROJECTION, null, null, null);
-
-            if(cursor!= null && cursor.moveToFirst())
-            {
-                int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                double high = cursor.getDouble(INDEX_MAX_TEMP);
-                double low = cursor.getDouble(INDEX_MIN_TEMP);
-
-                cursor.close();
-
-                int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-                String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
-
-                int largeIconWidth = context.getResources()
-                        .getDimensionPixelSize(android.R.dimen.notification_large_icon_width);
-
-                int largeIconHeight = context.getResources()
-                        .getDimensionPixelSize(android.R.dimen.notification_large_icon_height);
-
-                Bitmap largeIcon;
-                try {
-                    largeIcon = Glide.with(context)
-                            .load(artUrl)
-                            .asBitmap()
-                            .error(artResourceId)
-                            .fitCenter()
-                            .into(largeIconWidth, largeIconHeight).get();
-                } catch (InterruptedException | ExecutionException e) {
-                    Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
-                    largeIcon = BitmapFactory.decodeResource(context.getResources(), artResourceId);
-                }
+        // delete old data so we don't build up an endless history, also when every location
+        // answered 304 and nothing else is written.  It only notifies if a day was deleted.
+        operations.add(ContentProviderOperation
+                .newDelete(WeatherContract.WeatherEntry.CONTENT_URI)
+                .withSelection(WeatherContract.WeatherEntry.COLUMN_DATE + " <= ?",
+                        new String[]{Long.toString(tasks.get(0).getDayBeforeStart())})
+                .build());
+        // The location rows exist by now, so the validators of each response can be kept.
+        for (ForecastFetchTask task : tasks) {
+            if (task.mResponseValidators != null
+                    && (task.mNotModified || task.hasRowsToStore())) {
+                operations.add(ContentProviderOperation
+                        .newUpdate(WeatherContract.LocationEntry.CONTENT_URI)
+                        .withSelection(
+                                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                                new String[]{task.mLocationSetting})
+                        .withValues(task.mResponseValidators.toContentValues())
+                        .build());
+            }
+        }
 
+        ContentProviderResult[] results;
+        try {
+            results = getContext().getContentResolver().applyBatch(
+                    WeatherContract.CONTENT_AUTHORITY, operations);
+        } catch (RemoteException | OperationApplicationException e) {
+            // Nothing was stored, validators included, so the next sync fetches it all again.
+            // This is also where a location removed while the sync ran ends up.
+            Log.e(LOG_TAG, "Error storing forecasts", e);
+            return;
+        }
+        int changedRows = 0;
+        for (int i = preferredRowsStart; i < preferredRowsEnd; i++) {
+            changedRows += results[i].count;
+        }
+        boolean preferredChanged = changedRows > 0;
+        Log.d(LOG_TAG, "Sync Complete. " + operations.size() + " operations for "
+                + tasks.size() + " location(s), " + changedRows
+                + " changed row(s) for the preferred location");
 
-                PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(WEAR_PATH);
-                putDataMapRequest.getDataMap().putDouble(LOW_TEMP, low);
-                putDataMapRequest.getDataMap().putDouble(HIGH_TEMP, high);
-                putDataMapRequest.getDataMap().putLong(TIMESTAMP, System.currentTimeMillis());
+        if (preferredTask == null) {
+            return;
+        }
+        if (preferredTask.mLocationStatus != LOCATION_STATUS_UNKNOWN) {
+            setLocationStatus(getContext(), preferredTask.mLocationStatus);
+        }
+        if (preferredChanged) {
+            updateWatch();
+            updateWidgets();
+            updateMuzei();
+            notifyWeather();
+        }
+    }
 
-                if(largeIcon != null)
-                {
-                    ByteArrayOutputStream stream = new ByteArrayOutputStream();
-                    largeIcon.compress(Bitmap.CompressFormat.PNG, 100, stream);
-                    byte[] byteArray = stream.toByteArray();
-                    putDataMapRequest.getDataMap().putByteArray(IMAGE, byteArray);
-                }
+    /**
+     * Returns the cache validators of the last forecast stored for a location, or null if there
+     * is nothing worth revalidating: a 304 only helps while the rows it vouches for are still in
+     * the database.
+     */
+    private HttpValidators loadValidators(String locationSetting) {
+        ContentResolver resolver = getContext().getContentResolver();
 
-                PutDataRequest request = putDataMapRequest.asPutDataRequest();
-                Wearable.DataApi.putDataItem(mGoogleApiClient, request)
-                        .setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
-                            @Override
-                            public void onResult(DataApi.DataItemResult dataItemResult) {
-                                if(!dataItemResult.getStatus().isSuccess())
-                                {
-                                    Log.e(SunshineSyncAdapter.class.getSimpleName(),
-                                            "Wear Data Not sent");
-                                }
-                                else
-                                {
-                                    Log.d(SunshineSyncAdapter.class.getSimpleName(),
-                                            "Wear Data Sent");
-                                }
-                            }
-                        });
+        ForecastSnapshot forecast = ForecastSnapshot.get(getContext(), locationSetting);
+        if (forecast == null || forecast.indexOfDay(System.currentTimeMillis()) == -1) {
+            return null;
+        }
 
+        HttpValidators validators = null;
+        Cursor locationCursor = resolver.query(
+                WeatherContract.LocationEntry.CONTENT_URI,
+                HttpValidators.PROJECTION,
+                WeatherContract.LocationEntry.COLUMN_LOCATION_SETTING + " = ?",
+                new String[]{locationSetting},
+                null);
+        if (locationCursor != null) {
+            if (locationCursor.moveToFirst()) {
+                validators = HttpValidators.fromCursor(locationCursor);
             }
-
+            locationCursor.close();
         }
+        return validators;
+    }
+
+    private void updateWatch()
+    {
+        WearWeatherPublisher.getInstance(getContext()).requestPublish();
     }
 
     private void updateWidgets() {
@@ -624,21 +435,18 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                 // Last sync was more than 1 day ago, let's send a notification with the weather.
                 String locationQuery = Utility.getPreferredLocation(context);
 
-                Uri weatherUri = WeatherContract.WeatherEntry.buildWeatherLocationWithDate(locationQuery, System.currentTimeMillis());
-
-                // we'll query our contentProvider, as always
-                Cursor cursor = context.getContentResolver().query(weatherUri, NOTIFY_WEATHER_PROJECTION, null, null, null);
+                // the forecast was just stored, so this is usually a fresh snapshot
+                ForecastSnapshot forecast = ForecastSnapshot.get(context, locationQuery);
+                int today = forecast == null ? -1 : forecast.indexOfDay(System.currentTimeMillis());
 
-                if (cursor.moveToFirst()) {
-                    int weatherId = cursor.getInt(INDEX_WEATHER_ID);
-                    double high = cursor.getDouble(INDEX_MAX_TEMP);
-                    double low = cursor.getDouble(INDEX_MIN_TEMP);
-                    String desc = cursor.getString(INDEX_SHORT_DESC);
+                if (today != -1) {
+                    int weatherId = forecast.getWeatherId(today);
+                    double high = forecast.getHigh(today);
+                    double low = forecast.getLow(today);
+                    String desc = forecast.getDescription(today);
 
                     int iconId = Utility.getIconResourceForWeatherCondition(weatherId);
                     Resources resources = context.getResources();
-                    int artResourceId = Utility.getArtResourceForWeatherCondition(weatherId);
-                    String artUrl = Utility.getArtUrlForWeatherCondition(context, weatherId);
 
                     // On Honeycomb and higher devices, we can retrieve the size of the large icon
                     // Prior to that, we use a fixed size
@@ -652,18 +460,8 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                             : resources.getDimensionPixelSize(R.dimen.notification_large_icon_default);
 
                     // Retrieve the large icon
-                    Bitmap largeIcon;
-                    try {
-                        largeIcon = Glide.with(context)
-                                .load(artUrl)
-                                .asBitmap()
-                                .error(artResourceId)
-                                .fitCenter()
-                                .into(largeIconWidth, largeIconHeight).get();
-                    } catch (InterruptedException | ExecutionException e) {
-                        Log.e(LOG_TAG, "Error retrieving large icon from " + artUrl, e);
-                        largeIcon = BitmapFactory.decodeResource(resources, artResourceId);
-                    }
+                    Bitmap largeIcon = WeatherArtCache.getInstance(context)
+                            .get(weatherId, largeIconWidth, largeIconHeight);
                     String title = context.getString(R.string.app_name);
 
                     // Define the text of the forecast.
@@ -709,22 +507,23 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                     editor.putLong(lastNotificationKey, System.currentTimeMillis());
                     editor.commit();
                 }
-                cursor.close();
             }
         }
     }
 
     /**
-     * Helper method to handle insertion of a new location in the weather database.
+     * Helper method to handle insertion of a new location in the weather database.  The insert
+     * is an operation of the sync's batch, so it is committed along with the forecast.
      *
      * @param locationSetting The location string used to request updates from the server.
      * @param cityName A human-readable city name, e.g "Mountain View"
      * @param lat the latitude of the city
      * @param lon the longitude of the city
-     * @return the row ID of the added location.
+     * @return the operation that inserts the location, or null if it is already stored.
      */
-    long addLocation(String locationSetting, String cityName, double lat, double lon) {
-        long locationId;
+    ContentProviderOperation addLocation(String locationSetting, String cityName, double lat,
+                                         double lon) {
+        ContentProviderOperation locationInsert = null;
 
         // First, check if the location with this city name exists in the db
         Cursor locationCursor = getContext().getContentResolver().query(
@@ -734,10 +533,7 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
                 new String[]{locationSetting},
                 null);
 
-        if (locationCursor.moveToFirst()) {
-            int locationIdIndex = locationCursor.getColumnIndex(WeatherContract.LocationEntry._ID);
-            locationId = locationCursor.getLong(locationIdIndex);
-        } else {
+        if (!locationCursor.moveToFirst()) {
             // Now that the content provider is set up, inserting rows of data is pretty simple.
             // First create a ContentValues object to hold the data you want to insert.
             ContentValues locationValues = new ContentValues();
@@ -749,19 +545,15 @@ public class SunshineSyncAdapter extends AbstractThreadedSyncAdapter implements
             locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LAT, lat);
             locationValues.put(WeatherContract.LocationEntry.COLUMN_COORD_LONG, lon);
 
-            // Finally, insert location data into the database.
-            Uri insertedUri = getContext().getContentResolver().insert(
-                    WeatherContract.LocationEntry.CONTENT_URI,
-                    locationValues
-            );
-
-            // The resulting URI contains the ID for the row.  Extract the locationId from the Uri.
-            locationId = ContentUris.parseId(insertedUri);
+            // Finally, build the operation that inserts location data into the database.
+            locationInsert = ContentProviderOperation
+                    .newInsert(WeatherContract.LocationEntry.CONTENT_URI)
+                    .withValues(locationValues)
+                    .build();
         }
 
         locationCursor.close();
-        // Wait, that worked?  Yes!
-        return locationId;
+        return locationInsert;
     }
 
     @Retention(RetentionPolicy.SOURCE)
@@ -0,0 +1,112 @@
+package com.example.android.sunshine.app.wear;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.android.gms.common.ConnectionResult;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The one Wearable API connection of the app process, shared by everything that talks to the
+ * watch.  Users {@link #acquire()} the client before using it and {@link #release()} it after;
+ * the connection is made on the first acquire and dropped once nobody has held it for
+ * {@link #IDLE_DISCONNECT_MS}, so a burst of syncs and watch requests pays for one connection.
+ */
+public class WearConnection implements GoogleApiClient.ConnectionCallbacks,
+        GoogleApiClient.OnConnectionFailedListener {
+    private static final String LOG_TAG = WearConnection.class.getSimpleName();
+
+    private static final long CONNECT_TIMEOUT_SECONDS = 30;
+    private static final long IDLE_DISCONNECT_MS = TimeUnit.SECONDS.toMillis(30);
+
+    private static WearConnection sInstance;
+
+    private final GoogleApiClient mClient;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    // Guarded by this, which is only ever held briefly so the idle disconnect on the main
+    // thread never waits on a connection being made.
+    private int mReferences;
+
+    // Serializes blocking connects.
+    private final Object mConnectLock = new Object();
+
+    private final Runnable mIdleDisconnect = new Runnable() {
+        @Override
+        public void run() {
+            synchronized (WearConnection.this) {
+                if (mReferences == 0 && mClient.isConnected()) {
+                    Log.d(LOG_TAG, "Disconnecting idle client");
+                    mClient.disconnect();
+                }
+            }
+        }
+    };
+
+    public static synchronized WearConnection getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WearConnection(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private WearConnection(Context context) {
+        mClient = new GoogleApiClient.Builder(context)
+                .addConnectionCallbacks(this)
+                .addOnConnectionFailedListener(this)
+                .addApi(Wearable.API)
+                .build();
+    }
+
+    /**
+     * Takes a reference on the connection, connecting first if needed.  Blocks, so it must not
+     * be called on the main thread.  Every call must be matched by a {@link #release()}, whether
+     * or not it succeeded.
+     *
+     * @return the connected client, or null if it could not connect.
+     */
+    public GoogleApiClient acquire() {
+        synchronized (this) {
+            mReferences++;
+            mHandler.removeCallbacks(mIdleDisconnect);
+        }
+        synchronized (mConnectLock) {
+            if (!mClient.isConnected()) {
+                ConnectionResult result =
+                        mClient.blockingConnect(CONNECT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                if (!result.isSuccess()) {
+                    Log.e(LOG_TAG, "Failed to connect: " + result.getErrorMessage());
+                    return null;
+                }
+            }
+        }
+        return mClient;
+    }
+
+    public synchronized void release() {
+        if (mReferences == 0) {
+            throw new IllegalStateException("release() without acquire()");
+        }
+        if (--mReferences == 0) {
+            mHandler.postDelayed(mIdleDisconnect, IDLE_DISCONNECT_MS);
+        }
+    }
+
+    @Override
+    public void onConnected(Bundle bundle) {
+    }
+
+    @Override
+    public void onConnectionSuspended(int i) {
+    }
+
+    @Override
+    public void onConnectionFailed(ConnectionResult connectionResult) {
+    }
+}
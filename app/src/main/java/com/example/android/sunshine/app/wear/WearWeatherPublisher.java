@@ -0,0 +1,195 @@
+package com.example.android.sunshine.app.wear;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import com.example.android.sunshine.app.Utility;
+import com.example.android.sunshine.app.data.ForecastSnapshot;
+import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.PendingResult;
+import com.google.android.gms.wearable.DataApi;
+import com.google.android.gms.wearable.DataMap;
+import com.google.android.gms.wearable.MessageApi;
+import com.google.android.gms.wearable.PutDataMapRequest;
+import com.google.android.gms.wearable.Wearable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Publishes today's weather of the preferred location to the watches, for both the sync adapter
+ * and the watches' own requests.
+ *
+ * The weather is one DataItem, which the Data Layer syncs to every paired watch, including the
+ * ones that are away and only come back later.  A payload identical to the last one put isn't
+ * put again.  A watch that asks for the weather has lost it, so it is also sent the payload as a
+ * message of its own; a reply that couldn't be sent is tried again on the next publish.
+ * Triggers arriving within {@link #COALESCE_WINDOW_MS} of each other are folded into a single
+ * publish.  The payload carries the date of the forecast rather than the time it was sent, so the
+ * same forecast always makes the same payload.
+ */
+public class WearWeatherPublisher {
+    private static final String LOG_TAG = WearWeatherPublisher.class.getSimpleName();
+
+    private static final String WEAR_PATH = "/weather_info";
+    private static final String LOW_TEMP = "low";
+    private static final String HIGH_TEMP = "high";
+    private static final String WEATHER_ID = "weather_id";
+    private static final String DATE = "date";
+
+    private static final long COALESCE_WINDOW_MS = TimeUnit.SECONDS.toMillis(2);
+    private static final long SEND_TIMEOUT_SECONDS = 30;
+
+    private static WearWeatherPublisher sInstance;
+
+    private final Context mContext;
+    private final Handler mHandler;
+
+    // Guarded by this.
+    private boolean mPublishPending;
+    // Nodes that asked for the weather and haven't been sent a reply yet.
+    private final HashSet<String> mReplyNodeIds = new HashSet<String>();
+
+    // Only touched on the publisher thread.
+    private boolean mPublished;
+    private int mPublishedHash;
+
+    private final Runnable mPublish = new Runnable() {
+        @Override
+        public void run() {
+            ArrayList<String> replyNodeIds;
+            synchronized (WearWeatherPublisher.this) {
+                // Triggers from now on need another publish, as they may follow newer data.
+                mPublishPending = false;
+                replyNodeIds = new ArrayList<String>(mReplyNodeIds);
+                mReplyNodeIds.clear();
+            }
+            publish(replyNodeIds);
+        }
+    };
+
+    public static synchronized WearWeatherPublisher getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WearWeatherPublisher(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private WearWeatherPublisher(Context context) {
+        mContext = context;
+        HandlerThread thread = new HandlerThread(LOG_TAG, Process.THREAD_PRIORITY_BACKGROUND);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Asks for the current weather to be published.  Returns right away; the publish happens on
+     * a background thread once the coalescing window is over.
+     */
+    public synchronized void requestPublish() {
+        if (!mPublishPending) {
+            mPublishPending = true;
+            mHandler.postDelayed(mPublish, COALESCE_WINDOW_MS);
+        }
+    }
+
+    /**
+     * Like {@link #requestPublish()}, and also sends the weather straight to a node that asked
+     * for it, even if the DataItem is unchanged.
+     */
+    public synchronized void requestPublish(String nodeId) {
+        mReplyNodeIds.add(nodeId);
+        requestPublish();
+    }
+
+    private void publish(ArrayList<String> replyNodeIds) {
+        String locationQuery = Utility.getPreferredLocation(mContext);
+        ForecastSnapshot forecast = ForecastSnapshot.get(mContext, locationQuery);
+        int today = forecast == null ? -1 : forecast.indexOfDay(System.currentTimeMillis());
+        if (today == -1) {
+            return;
+        }
+
+        long date = forecast.getDate(today);
+        int weatherId = forecast.getWeatherId(today);
+        double high = forecast.getHigh(today);
+        double low = forecast.getLow(today);
+
+        int hash = Arrays.hashCode(new long[]{
+                date,
+                weatherId,
+                Double.doubleToLongBits(high),
+                Double.doubleToLongBits(low)
+        });
+        if (mPublished && hash == mPublishedHash && replyNodeIds.isEmpty()) {
+            Log.d(LOG_TAG, "Wear Data unchanged");
+            return;
+        }
+
+        WearConnection connection = WearConnection.getInstance(mContext);
+        try {
+            GoogleApiClient googleApiClient = connection.acquire();
+            if (googleApiClient == null) {
+                retryReplies(replyNodeIds);
+                return;
+            }
+
+            // The watch keeps its own art for every condition, so the condition id is all
+            // it needs to draw it.
+            PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(WEAR_PATH);
+            DataMap dataMap = putDataMapRequest.getDataMap();
+            dataMap.putDouble(LOW_TEMP, low);
+            dataMap.putDouble(HIGH_TEMP, high);
+            dataMap.putInt(WEATHER_ID, weatherId);
+            dataMap.putLong(DATE, date);
+
+            // Send the replies before waiting on the put, so they overlap.
+            byte[] payload = dataMap.toByteArray();
+            ArrayList<PendingResult<MessageApi.SendMessageResult>> replies =
+                    new ArrayList<PendingResult<MessageApi.SendMessageResult>>(
+                            replyNodeIds.size());
+            for (String nodeId : replyNodeIds) {
+                replies.add(Wearable.MessageApi.sendMessage(
+                        googleApiClient, nodeId, WEAR_PATH, payload));
+            }
+
+            if (!mPublished || hash != mPublishedHash) {
+                DataApi.DataItemResult result = Wearable.DataApi
+                        .putDataItem(googleApiClient, putDataMapRequest.asPutDataRequest())
+                        .await(SEND_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                if (result.getStatus().isSuccess()) {
+                    Log.d(LOG_TAG, "Wear Data Sent");
+                    mPublished = true;
+                    mPublishedHash = hash;
+                } else {
+                    Log.e(LOG_TAG, "Wear Data Not sent: " + result.getStatus());
+                }
+            }
+
+            ArrayList<String> failedNodeIds = new ArrayList<String>();
+            for (int i = 0; i < replyNodeIds.size(); i++) {
+                MessageApi.SendMessageResult result =
+                        replies.get(i).await(SEND_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+                if (!result.getStatus().isSuccess()) {
+                    Log.e(LOG_TAG, "Wear Data Not sent to " + replyNodeIds.get(i) + ": "
+                            + result.getStatus());
+                    failedNodeIds.add(replyNodeIds.get(i));
+                }
+            }
+            retryReplies(failedNodeIds);
+        } finally {
+            connection.release();
+        }
+    }
+
+    // Keeps the replies for the next publish, without triggering one: the node asks again on
+    // its own if it still lacks the weather.
+    private synchronized void retryReplies(ArrayList<String> nodeIds) {
+        mReplyNodeIds.addAll(nodeIds);
+    }
+}
@@ -0,0 +1,42 @@
+package com.example.android.sunshine.app;
+
+import java.util.Random;
+
+/**
+ * Retry delays that double with every attempt up to a cap.  Each delay is picked at random in
+ * the upper half of its range, so retries don't line up with each other or with a phone that is
+ * busy for a fixed while.
+ */
+class ExponentialBackoff {
+
+    private final long mInitialDelayMs;
+    private final long mMaxDelayMs;
+    private final Random mRandom = new Random();
+    private int mAttempts;
+
+    ExponentialBackoff(long initialDelayMs, long maxDelayMs) {
+        mInitialDelayMs = initialDelayMs;
+        mMaxDelayMs = maxDelayMs;
+    }
+
+    /**
+     * @return the delay before the next attempt, in milliseconds.
+     */
+    long nextDelay() {
+        long delay = mMaxDelayMs;
+        // Past 30 doublings any sane cap has been reached, and the shift would overflow.
+        if (mAttempts < 30) {
+            delay = Math.min(mMaxDelayMs, mInitialDelayMs << mAttempts);
+        }
+        mAttempts++;
+        long half = delay / 2;
+        return half + (long) (mRandom.nextDouble() * (delay - half));
+    }
+
+    /**
+     * Starts over from the initial delay, once an attempt succeeded.
+     */
+    void reset() {
+        mAttempts = 0;
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.android.sunshine.app;
+
+import android.os.Debug;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * Frame time and allocation counters for the watch face, to confirm that drawing a frame stays
+ * cheap and that onDraw allocates nothing in steady state.  Counting is off unless the tag is
+ * loggable at DEBUG ({@code adb shell setprop log.tag.FrameStats DEBUG}, then restart the face);
+ * while it is on, a summary of every {@link #REPORT_FRAMES} frames is logged.
+ */
+@SuppressWarnings("deprecation")
+class FrameStats {
+    private static final String LOG_TAG = FrameStats.class.getSimpleName();
+
+    private static final int REPORT_FRAMES = 60;
+
+    private final boolean mEnabled = Log.isLoggable(LOG_TAG, Log.DEBUG);
+
+    private long mFrameStartNanos;
+    private int mFrameStartAllocations;
+
+    private int mFrames;
+    private long mTotalNanos;
+    private long mMaxNanos;
+    private int mAllocations;
+
+    FrameStats() {
+        if (mEnabled) {
+            Debug.startAllocCounting();
+        }
+    }
+
+    void stop() {
+        if (mEnabled) {
+            Debug.stopAllocCounting();
+        }
+    }
+
+    void beginFrame() {
+        if (!mEnabled) {
+            return;
+        }
+        mFrameStartAllocations = Debug.getThreadAllocCount();
+        mFrameStartNanos = SystemClock.elapsedRealtimeNanos();
+    }
+
+    void endFrame() {
+        if (!mEnabled) {
+            return;
+        }
+        long nanos = SystemClock.elapsedRealtimeNanos() - mFrameStartNanos;
+        mAllocations += Debug.getThreadAllocCount() - mFrameStartAllocations;
+        mTotalNanos += nanos;
+        if (nanos > mMaxNanos) {
+            mMaxNanos = nanos;
+        }
+
+        if (++mFrames == REPORT_FRAMES) {
+            // Logging allocates, but outside of the frames being counted.
+            Log.d(LOG_TAG, mFrames + " frames: average " + (mTotalNanos / mFrames / 1000)
+                    + " us, max " + (mMaxNanos / 1000) + " us, " + mAllocations
+                    + " allocations");
+            mFrames = 0;
+            mTotalNanos = 0;
+            mMaxNanos = 0;
+            mAllocations = 0;
+        }
+    }
+}
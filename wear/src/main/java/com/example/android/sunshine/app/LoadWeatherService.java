@@ -2,6 +2,7 @@ package com.example.android.sunshine.app;
 
 import android.app.Service;
 import android.content.Intent;
+import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.IBinder;
@@ -10,13 +11,24 @@ import android.util.Log;
 
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.api.GoogleApiClient;
+import com.google.android.gms.common.api.PendingResult;
+import com.google.android.gms.wearable.DataItem;
+import com.google.android.gms.wearable.DataItemBuffer;
 import com.google.android.gms.wearable.DataMap;
+import com.google.android.gms.wearable.DataMapItem;
+import com.google.android.gms.wearable.MessageApi;
 import com.google.android.gms.wearable.Node;
+import com.google.android.gms.wearable.PutDataRequest;
 import com.google.android.gms.wearable.Wearable;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
+ * Asks the phone to send the weather once, then stops.  The watch face only starts it when the
+ * weather it holds is missing or stale.  The weather DataItem the Data Layer already holds is
+ * looked at first, and the phone is only asked if that isn't newer than what the face has.
+ *
  * @author Julio Mendoza on 11/3/15.
  */
 public class LoadWeatherService extends Service implements GoogleApiClient.ConnectionCallbacks,
@@ -41,6 +53,15 @@ public class LoadWeatherService extends Service implements GoogleApiClient.Conne
         apiClient.connect();
     }
 
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        // The first start is handled once connected; later ones while still running ask again.
+        if (apiClient.isConnected()) {
+            sendRequestWeatherMessage();
+        }
+        return START_NOT_STICKY;
+    }
+
     @Override
     public void onConnected(Bundle bundle) {
         Log.d(this.getClass().getSimpleName(), "Connected");
@@ -55,6 +76,7 @@ public class LoadWeatherService extends Service implements GoogleApiClient.Conne
     @Override
     public void onConnectionFailed(ConnectionResult connectionResult) {
         Log.e(this.getClass().getSimpleName(), "" + connectionResult.getErrorMessage());
+        stopSelf();
     }
 
     @Nullable
@@ -86,28 +108,71 @@ public class LoadWeatherService extends Service implements GoogleApiClient.Conne
             if(apiClient != null && apiClient.isConnected())
             {
                 Log.d(this.getClass().getSimpleName(), "Handle Load Weather");
+                if(loadHeldWeather())
+                {
+                    Log.d(this.getClass().getSimpleName(), "Newer weather held by the Data Layer");
+                    return null;
+                }
+
                 List<Node> connectedNodes =
                         Wearable.NodeApi.getConnectedNodes(apiClient).await().getNodes();
-                Node node = null;
-                for(Node n: connectedNodes)
+
+                DataMap config = new DataMap();
+                config.putString(ACK_MESSAGE_KEY, ACK_MESSAGE);
+                byte[] rawData = config.toByteArray();
+
+                // Ask every connected node at once; any phone running Sunshine can answer.
+                List<PendingResult<MessageApi.SendMessageResult>> results =
+                        new ArrayList<>(connectedNodes.size());
+                for(Node node : connectedNodes)
                 {
-                    if(n.isNearby())
+                    results.add(Wearable.MessageApi.sendMessage(apiClient, node.getId(),
+                            ACK_PATH, rawData));
+                }
+                for(PendingResult<MessageApi.SendMessageResult> result : results)
+                {
+                    if(result.await().getStatus().isSuccess())
                     {
-                        node = n;
-                        break;
+                        Log.d(this.getClass().getSimpleName(), "Message sent");
                     }
                 }
+            }
+            return null;
+        }
 
-                if(node != null)
+        /**
+         * Stores the weather DataItem held locally, which the listener may have missed.
+         *
+         * @return whether it was newer than the stored weather.
+         */
+        private boolean loadHeldWeather()
+        {
+            WeatherStore store = WeatherStore.getInstance(LoadWeatherService.this);
+            long storedDate = store.getDate();
+            Uri uri = new Uri.Builder().scheme(PutDataRequest.WEAR_URI_SCHEME)
+                    .path(WeatherReceiverService.WEAR_PATH).build();
+            DataItemBuffer dataItems = Wearable.DataApi.getDataItems(apiClient, uri).await();
+            try
+            {
+                if(dataItems.getStatus().isSuccess())
                 {
-                    DataMap config = new DataMap();
-                    config.putString(ACK_MESSAGE_KEY, ACK_MESSAGE);
-                    byte[] rawData = config.toByteArray();
-                    Wearable.MessageApi.sendMessage(apiClient, node.getId(), ACK_PATH, rawData);
-                    Log.d(this.getClass().getSimpleName(), "Message sent");
+                    for(DataItem dataItem : dataItems)
+                    {
+                        WeatherReceiverService.store(LoadWeatherService.this,
+                                DataMapItem.fromDataItem(dataItem).getDataMap());
+                    }
                 }
             }
-            return null;
+            finally
+            {
+                dataItems.release();
+            }
+            return store.getDate() > storedDate;
+        }
+
+        @Override
+        protected void onPostExecute(Void result) {
+            stopSelf();
         }
     }
 }
@@ -22,7 +22,6 @@ import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.res.Resources;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
@@ -34,19 +33,9 @@ import android.os.Message;
 import android.support.wearable.watchface.CanvasWatchFaceService;
 import android.support.wearable.watchface.WatchFaceStyle;
 import android.text.format.Time;
-import android.util.Log;
 import android.view.SurfaceHolder;
 import android.view.WindowInsets;
 
-import com.google.android.gms.common.ConnectionResult;
-import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.wearable.DataApi;
-import com.google.android.gms.wearable.DataEvent;
-import com.google.android.gms.wearable.DataEventBuffer;
-import com.google.android.gms.wearable.DataMap;
-import com.google.android.gms.wearable.DataMapItem;
-import com.google.android.gms.wearable.Wearable;
-
 import java.lang.ref.WeakReference;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
@@ -67,12 +56,6 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
     private static final Typeface BOLD_TYPEFACE =
             Typeface.create(Typeface.SANS_SERIF, Typeface.BOLD);
 
-    private static final String WEAR_PATH = "/weather_info/wear";
-
-    private static final String LOW_TEMP = "low";
-    private static final String HIGH_TEMP = "high";
-    private static final String IMAGE = "image";
-
     /**
      * Update rate in milliseconds for interactive mode. We update once a second since seconds are
      * displayed in interactive mode.
@@ -86,7 +69,11 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
 
     private static final int MSG_LOAD_WEATHER = 1;
 
-    private static final long DELAY = 1800000;
+    /**
+     * Bounds of the backoff between requests while the phone doesn't answer.
+     */
+    private static final long RETRY_INITIAL_DELAY_MS = TimeUnit.SECONDS.toMillis(30);
+    private static final long RETRY_MAX_DELAY_MS = TimeUnit.MINUTES.toMillis(30);
 
     @Override
     public Engine onCreateEngine() {
@@ -141,8 +128,7 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
 
     @SuppressWarnings("deprecation")
     private class Engine extends CanvasWatchFaceService.Engine
-            implements GoogleApiClient.ConnectionCallbacks,
-            GoogleApiClient.OnConnectionFailedListener, DataApi.DataListener
+            implements WeatherStore.Listener
     {
 
 
@@ -168,11 +154,6 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
 
         int bitmapSize;
 
-        GoogleApiClient mGoogleApiClient = new GoogleApiClient.Builder(SunshineWatchFace.this)
-                .addConnectionCallbacks(this)
-                .addOnConnectionFailedListener(this)
-                .addApi(Wearable.API)
-                .build();
         /**
          * Whether the display supports fewer bits for each color in ambient mode. When true, we
          * disable anti-aliasing in ambient mode.
@@ -185,50 +166,54 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
             public void onReceive(Context context, Intent intent) {
                 mTime.clear(intent.getStringExtra("time-zone"));
                 mTime.setToNow();
-                date.setTime(System.currentTimeMillis());
+                resetDateText();
             }
         };
         private int low;
         private int high;
-        private byte[] bitmapBytes;
-
-        @Override
-        public void onConnected(Bundle bundle) {
-            Wearable.DataApi.addListener(mGoogleApiClient, Engine.this);
-            Log.i(this.getClass().getSimpleName(), "Connected");
-
-        }
+        private String lowText;
+        private String highText;
+        private int weatherId = -1;
+        // The day of the forecast being shown, as the phone's local midnight of that day; 0 if
+        // none was received.
+        private long weatherDate;
+        private final ExponentialBackoff loadWeatherBackoff =
+                new ExponentialBackoff(RETRY_INITIAL_DELAY_MS, RETRY_MAX_DELAY_MS);
+        private WeatherIconAtlas iconAtlas;
+        private FrameStats frameStats;
+
+        // The time is written into this buffer on every frame; the date and temperature texts
+        // only change with the day or the data.
+        private final char[] timeChars = new char[8];
+        private String dateText;
+        private int dateTextDay = -1;
+
+        // Everything but the time is drawn into this layer, which is only redrawn when the data,
+        // the day, the time zone, the ambient mode or the insets change.  A frame is then one
+        // blit of the layer plus the time text.
+        private Bitmap staticLayer;
+        private Canvas staticLayerCanvas;
+        private boolean staticLayerValid;
 
         @Override
-        public void onConnectionSuspended(int i) {
-            Log.i(this.getClass().getSimpleName(), "Connection suspended: " + i);
+        public void onWeatherChanged(WeatherStore store) {
+            setWeather(store);
+            rescheduleLoadWeather();
         }
 
-        @Override
-        public void onConnectionFailed(ConnectionResult connectionResult) {
-            Log.e(this.getClass().getSimpleName(), "Connection failed: "
-                    + connectionResult.getErrorMessage());
-        }
-
-        @Override
-        public void onDataChanged(DataEventBuffer dataEventBuffer) {
-            for(DataEvent dataEvent : dataEventBuffer)
-            {
-                if(dataEvent.getType() == DataEvent.TYPE_CHANGED)
-                {
-                    DataMap dataMap =
-                            DataMapItem.fromDataItem(dataEvent.getDataItem()).getDataMap();
-                    String path = dataEvent.getDataItem().getUri().getPath();
-                    if(path.equals(WEAR_PATH))
-                    {
-                        low = (int) dataMap.getDouble(LOW_TEMP);
-                        high = (int) dataMap.getDouble(HIGH_TEMP);
-                        bitmapBytes = dataMap.getByteArray(IMAGE);
-
-                        break;
-                    }
-                }
-            }
+        /**
+         * Shows the weather held by the store.
+         */
+        private void setWeather(WeatherStore store) {
+            weatherDate = store.getDate();
+            low = (int) store.getLow();
+            high = (int) store.getHigh();
+            lowText = low + "º";
+            highText = high + "º";
+            weatherId = store.getWeatherId();
+            iconAtlas.setWeatherCondition(weatherId);
+            staticLayerValid = false;
+            invalidate();
         }
 
         @Override
@@ -269,6 +254,8 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
             mLowTextPaint.setTextSize(getResources().getDimension(R.dimen.weather_text_size));
 
             mBitmapPaint = createBitmapPaint();
+            iconAtlas = new WeatherIconAtlas(resources, bitmapSize);
+            frameStats = new FrameStats();
 
             mTime = new Time();
 
@@ -281,6 +268,11 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
         public void onDestroy() {
             mUpdateTimeHandler.removeMessages(MSG_UPDATE_TIME);
             loadWeatherHandler.removeMessages(MSG_LOAD_WEATHER);
+            iconAtlas.recycle();
+            if (staticLayer != null) {
+                staticLayer.recycle();
+            }
+            frameStats.stop();
             super.onDestroy();
         }
 
@@ -314,22 +306,24 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
             super.onVisibilityChanged(visible);
 
             if (visible) {
-                mGoogleApiClient.connect();
                 registerReceiver();
 
                 // Update time zone in case it changed while we weren't visible.
                 mTime.clear(TimeZone.getDefault().getID());
                 mTime.setToNow();
-                date.setTime(System.currentTimeMillis());
-                loadWeatherHandler.sendEmptyMessage(MSG_LOAD_WEATHER);
+                resetDateText();
+
+                // Catch up with whatever arrived while we weren't listening, then decide whether
+                // the phone has to be asked for more.
+                WeatherStore store = WeatherStore.getInstance(SunshineWatchFace.this);
+                store.addListener(this);
+                setWeather(store);
+                rescheduleLoadWeather();
             } else {
 
                 unregisterReceiver();
 
-                if (mGoogleApiClient != null && mGoogleApiClient.isConnected()) {
-                    Wearable.DataApi.removeListener(mGoogleApiClient, this);
-                    mGoogleApiClient.disconnect();
-                }
+                WeatherStore.getInstance(SunshineWatchFace.this).removeListener(this);
                 loadWeatherHandler.removeMessages(MSG_LOAD_WEATHER);
             }
 
@@ -372,6 +366,8 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
             float dateTextSize = resources.getDimension(R.dimen.date_text_size);
 
             mDateTextPaint.setTextSize(dateTextSize);
+
+            staticLayerValid = false;
         }
 
         @Override
@@ -394,6 +390,7 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
                 if (mLowBitAmbient) {
                     mTextPaint.setAntiAlias(!inAmbientMode);
                 }
+                staticLayerValid = false;
                 invalidate();
             }
 
@@ -405,41 +402,109 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
 
         @Override
         public void onDraw(Canvas canvas, Rect bounds) {
+            frameStats.beginFrame();
+
+            mTime.setToNow();
+            if (!mAmbient && updateDateText()) {
+                staticLayerValid = false;
+            }
+            canvas.drawBitmap(getStaticLayer(bounds), 0, 0, null);
+
+            // Draw H:MM in ambient mode or H:MM:SS in interactive mode.
+            int timeLength = formatTime(mTime.hour, mTime.minute, mAmbient ? -1 : mTime.second);
+            canvas.drawText(timeChars, 0, timeLength, bounds.centerX(), mYOffset, mTextPaint);
+
+            frameStats.endFrame();
+        }
+
+        /**
+         * Returns the layer with everything but the time, redrawing it first if it is out of date.
+         */
+        private Bitmap getStaticLayer(Rect bounds) {
+            if (staticLayer == null || staticLayer.getWidth() != bounds.width()
+                    || staticLayer.getHeight() != bounds.height()) {
+                if (staticLayer != null) {
+                    staticLayer.recycle();
+                }
+                staticLayer = Bitmap.createBitmap(bounds.width(), bounds.height(),
+                        Bitmap.Config.ARGB_8888);
+                staticLayerCanvas = new Canvas(staticLayer);
+                staticLayerValid = false;
+            }
+            if (!staticLayerValid) {
+                drawStaticLayer(staticLayerCanvas, bounds);
+                staticLayerValid = true;
+            }
+            return staticLayer;
+        }
+
+        private void drawStaticLayer(Canvas canvas, Rect bounds) {
             // Draw the background.
-            if (isInAmbientMode()) {
+            if (mAmbient) {
                 canvas.drawColor(Color.BLACK);
-            } else {
-                canvas.drawRect(0, 0, bounds.width(), bounds.height(), mBackgroundPaint);
+                return;
             }
+            canvas.drawRect(0, 0, bounds.width(), bounds.height(), mBackgroundPaint);
 
-            // Draw H:MM in ambient mode or H:MM:SS in interactive mode.
-            mTime.setToNow();
-            String text = mAmbient
-                    ? String.format("%d:%02d", mTime.hour, mTime.minute)
-                    : String.format("%d:%02d:%02d", mTime.hour, mTime.minute, mTime.second);
-            canvas.drawText(text, bounds.centerX(), mYOffset, mTextPaint);
+            canvas.drawText(dateText, bounds.centerX(),dateYOffset, mDateTextPaint);
 
-            if(!mAmbient)
+            if(weatherId != -1)
             {
-                String dateText = dateFormat.format(date);
-                canvas.drawText(dateText, bounds.centerX(),dateYOffset, mDateTextPaint);
+                iconAtlas.draw(canvas, bitmapXOffset, bitmapYOffset, mBitmapPaint);
 
-                if(bitmapBytes != null)
-                {
-                    Bitmap bitmap = BitmapFactory.decodeByteArray(bitmapBytes, 0,
-                            bitmapBytes.length);
+                canvas.drawText(highText, highXOffset, weatherYOffset, mHighTextPaint);
 
-                    Bitmap scaledBitmap = Bitmap.createScaledBitmap(bitmap, bitmapSize,
-                            bitmapSize, false);
+                canvas.drawText(lowText, lowXOffset, weatherYOffset, mLowTextPaint);
+            }
+        }
 
-                    canvas.drawBitmap(scaledBitmap, bitmapXOffset, bitmapYOffset, mBitmapPaint);
+        /**
+         * Writes H:MM, or H:MM:SS unless second is negative, into {@link #timeChars}.
+         *
+         * @return the number of chars written.
+         */
+        private int formatTime(int hour, int minute, int second) {
+            int length = 0;
+            if (hour >= 10) {
+                timeChars[length++] = (char) ('0' + hour / 10);
+            }
+            timeChars[length++] = (char) ('0' + hour % 10);
+            length = appendTwoDigits(length, minute);
+            if (second >= 0) {
+                length = appendTwoDigits(length, second);
+            }
+            return length;
+        }
 
-                    canvas.drawText(high + "º", highXOffset, weatherYOffset, mHighTextPaint);
+        private int appendTwoDigits(int length, int value) {
+            timeChars[length++] = ':';
+            timeChars[length++] = (char) ('0' + value / 10);
+            timeChars[length++] = (char) ('0' + value % 10);
+            return length;
+        }
 
-                    canvas.drawText(low + "º", lowXOffset, weatherYOffset, mLowTextPaint);
-                }
+        /**
+         * Formats the date again if the day changed since it was last formatted.
+         *
+         * @return true if the date text changed.
+         */
+        private boolean updateDateText() {
+            int day = mTime.year * 1000 + mTime.yearDay;
+            if (day == dateTextDay) {
+                return false;
             }
+            date.setTime(mTime.toMillis(false));
+            dateText = dateFormat.format(date);
+            dateTextDay = day;
+            return true;
+        }
 
+        /**
+         * Makes the next frame format the date again, in the time zone of {@link #mTime}.
+         */
+        private void resetDateText() {
+            dateFormat.setTimeZone(TimeZone.getTimeZone(mTime.timezone));
+            dateTextDay = -1;
         }
 
         /**
@@ -474,10 +539,35 @@ public class SunshineWatchFace extends CanvasWatchFaceService {
             }
         }
 
+        /**
+         * Asks the phone for the weather if the face has none or only the forecast of another day,
+         * and schedules the next check: for the end of the day, or after a backoff while the
+         * phone hasn't answered.  The phone pushes every change on its own, so as long as the
+         * forecast is today's there is nothing to ask for.
+         */
         public void handleLoadWeather() {
+            long now = System.currentTimeMillis();
+            mTime.set(now);
+            int today = Time.getJulianDay(now, mTime.gmtoff);
+            // Forecast dates are the local midnight of their day, so they take the same offset.
+            if (weatherDate != 0 && Time.getJulianDay(weatherDate, mTime.gmtoff) == today) {
+                loadWeatherBackoff.reset();
+                long tomorrow = mTime.setJulianDay(today + 1);
+                mTime.set(now);
+                loadWeatherHandler.sendEmptyMessageDelayed(MSG_LOAD_WEATHER, tomorrow - now);
+                return;
+            }
             Intent intent = new Intent(getApplicationContext(), LoadWeatherService.class);
             startService(intent);
-            loadWeatherHandler.sendEmptyMessageDelayed(MSG_LOAD_WEATHER, DELAY);
+            loadWeatherHandler.sendEmptyMessageDelayed(MSG_LOAD_WEATHER,
+                    loadWeatherBackoff.nextDelay());
+        }
+
+        private void rescheduleLoadWeather() {
+            loadWeatherHandler.removeMessages(MSG_LOAD_WEATHER);
+            if (isVisible()) {
+                loadWeatherHandler.sendEmptyMessage(MSG_LOAD_WEATHER);
+            }
         }
     }
 }
@@ -0,0 +1,126 @@
+package com.example.android.sunshine.app;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.drawable.Drawable;
+
+import java.util.Arrays;
+
+/**
+ * The weather art of the watch face, keyed by OpenWeatherMap condition id.  The phone only sends
+ * the condition id; the art ships with the watch and is rendered once, at the size the face draws
+ * it, into a single strip bitmap.  Drawing the art for a condition is then one blit out of that
+ * strip, with no decoding or scaling per frame.
+ */
+class WeatherIconAtlas {
+
+    // Cells of the strip, in the order of ART.
+    private static final byte STORM = 0;
+    private static final byte LIGHT_RAIN = 1;
+    private static final byte RAIN = 2;
+    private static final byte SNOW = 3;
+    private static final byte FOG = 4;
+    private static final byte CLEAR = 5;
+    private static final byte LIGHT_CLOUDS = 6;
+    private static final byte CLOUDS = 7;
+
+    private static final int[] ART = {
+            R.drawable.art_storm,
+            R.drawable.art_light_rain,
+            R.drawable.art_rain,
+            R.drawable.art_snow,
+            R.drawable.art_fog,
+            R.drawable.art_clear,
+            R.drawable.art_light_clouds,
+            R.drawable.art_clouds
+    };
+
+    // Condition ids are all below this.
+    private static final int ID_LIMIT = 1000;
+
+    // The cell of every condition id.  The phone's art comes from the same buckets, in the
+    // BUCKETS table of WeatherConditions behind Utility.getArtResourceForWeatherCondition, which
+    // is the one to follow if they ever differ.
+    private static final byte[] CELLS = new byte[ID_LIMIT];
+
+    static {
+        // Based on weather code data found at:
+        // http://bugs.openweathermap.org/projects/api/wiki/Weather_Condition_Codes
+        Arrays.fill(CELLS, (byte) -1);
+        Arrays.fill(CELLS, 200, 232 + 1, STORM);
+        Arrays.fill(CELLS, 300, 321 + 1, LIGHT_RAIN);
+        Arrays.fill(CELLS, 500, 504 + 1, RAIN);
+        CELLS[511] = SNOW;
+        Arrays.fill(CELLS, 520, 531 + 1, RAIN);
+        Arrays.fill(CELLS, 600, 622 + 1, SNOW);
+        Arrays.fill(CELLS, 701, 761 + 1, FOG);
+        // Tornado.
+        CELLS[781] = STORM;
+        CELLS[800] = CLEAR;
+        CELLS[801] = LIGHT_CLOUDS;
+        Arrays.fill(CELLS, 802, 804 + 1, CLOUDS);
+    }
+
+    private final int mSize;
+    private final Bitmap mAtlas;
+    private final Rect mSrc = new Rect();
+    private final Rect mDst = new Rect();
+
+    /**
+     * @param size the width and height, in pixels, the art is drawn at.
+     */
+    WeatherIconAtlas(Resources resources, int size) {
+        mSize = size;
+        mAtlas = Bitmap.createBitmap(size * ART.length, size, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(mAtlas);
+        for (int i = 0; i < ART.length; i++) {
+            Drawable art = resources.getDrawable(ART[i], null);
+            art.setBounds(i * size, 0, (i + 1) * size, size);
+            art.draw(canvas);
+        }
+    }
+
+    /**
+     * Selects the art of a condition for the following draws.  The lookup happens here, once per
+     * forecast, rather than on every frame.
+     *
+     * @return false if there is no art for the condition, in which case draw() draws nothing.
+     */
+    boolean setWeatherCondition(int weatherId) {
+        int cell = getCellForWeatherCondition(weatherId);
+        if (cell == -1) {
+            mSrc.setEmpty();
+            return false;
+        }
+        mSrc.set(cell * mSize, 0, (cell + 1) * mSize, mSize);
+        return true;
+    }
+
+    /**
+     * Draws the selected art with its top left corner at (left, top).
+     */
+    void draw(Canvas canvas, float left, float top, Paint paint) {
+        if (mSrc.isEmpty()) {
+            return;
+        }
+        mDst.set((int) left, (int) top, (int) left + mSize, (int) top + mSize);
+        canvas.drawBitmap(mAtlas, mSrc, mDst, paint);
+    }
+
+    void recycle() {
+        mAtlas.recycle();
+    }
+
+    /**
+     * @return the cell of the strip for the condition, or -1 if there is none.
+     */
+    private static int getCellForWeatherCondition(int weatherId) {
+        if (weatherId < 0 || weatherId >= CELLS.length) {
+            return -1;
+        }
+        return CELLS[weatherId];
+    }
+}
@@ -1,107 +1,62 @@
 package com.example.android.sunshine.app;
 
-import android.os.Bundle;
+import android.content.Context;
 import android.util.Log;
 
-import com.google.android.gms.common.ConnectionResult;
-import com.google.android.gms.common.api.GoogleApiClient;
-import com.google.android.gms.common.api.ResultCallback;
-import com.google.android.gms.wearable.DataApi;
 import com.google.android.gms.wearable.DataEvent;
 import com.google.android.gms.wearable.DataEventBuffer;
 import com.google.android.gms.wearable.DataMap;
 import com.google.android.gms.wearable.DataMapItem;
-import com.google.android.gms.wearable.PutDataMapRequest;
-import com.google.android.gms.wearable.Wearable;
+import com.google.android.gms.wearable.MessageEvent;
 import com.google.android.gms.wearable.WearableListenerService;
 
-import java.util.concurrent.TimeUnit;
+/**
+ * Receives the weather the phone publishes and hands it to the watch face through the in-process
+ * {@link WeatherStore}, without writing it back to the Data Layer.  The weather arrives as the
+ * phone's DataItem, and also as a message when the watch asked for it.
+ */
+public class WeatherReceiverService extends WearableListenerService {
 
-public class WeatherReceiverService extends WearableListenerService
-        implements GoogleApiClient.ConnectionCallbacks, GoogleApiClient.OnConnectionFailedListener {
-
-    private static final String WEAR_PATH = "/weather_info";
+    static final String WEAR_PATH = "/weather_info";
 
     private static final String LOW_TEMP = "low";
     private static final String HIGH_TEMP = "high";
-    private static final String IMAGE = "image";
-    private static final String TIMESTAMP = "timestamp";
-    private static final String WATCH_FACE_PATH = "/weather_info/wear";
-
-    private GoogleApiClient mGoogleApiClient;
+    private static final String WEATHER_ID = "weather_id";
+    private static final String DATE = "date";
 
     @Override
     public void onDataChanged(DataEventBuffer dataEvents) {
-        Log.i(this.getClass().getSimpleName(), "Data changed");
-
-        if (mGoogleApiClient == null) {
-            mGoogleApiClient = new GoogleApiClient.Builder(this).addConnectionCallbacks(this)
-                    .addOnConnectionFailedListener(this).addApi(Wearable.API).build();
-        }
-        if (!mGoogleApiClient.isConnected()) {
-            ConnectionResult connectionResult =
-                    mGoogleApiClient.blockingConnect(30, TimeUnit.SECONDS);
-
-            if (!connectionResult.isSuccess()) {
-                Log.e(this.getClass().getSimpleName(), "Failed to connect to GoogleApiClient.");
-                return;
-            }
-        }
-
         for(DataEvent dataEvent : dataEvents)
         {
-            if(dataEvent.getType() == DataEvent.TYPE_CHANGED)
+            if(dataEvent.getType() == DataEvent.TYPE_CHANGED
+                    && dataEvent.getDataItem().getUri().getPath().equals(WEAR_PATH))
             {
-                DataMap dataMap =
-                        DataMapItem.fromDataItem(dataEvent.getDataItem()).getDataMap();
-                String path = dataEvent.getDataItem().getUri().getPath();
-                if(path.equals(WEAR_PATH))
-                {
-                    double low = dataMap.getDouble(LOW_TEMP);
-                    double high = dataMap.getDouble(HIGH_TEMP);
-                    byte[] bitmapBytes = dataMap.getByteArray(IMAGE);
-
-                    sendDataToWatchFace(low, high, bitmapBytes);
-                    break;
-                }
+                Log.i(this.getClass().getSimpleName(), "Weather changed");
+                store(this, DataMapItem.fromDataItem(dataEvent.getDataItem()).getDataMap());
             }
         }
-
-    }
-
-    private void sendDataToWatchFace(double low, double high, byte[] byteArray)
-    {
-        PutDataMapRequest putDataMapRequest = PutDataMapRequest.create(WATCH_FACE_PATH);
-        putDataMapRequest.getDataMap().putDouble(LOW_TEMP, low);
-        putDataMapRequest.getDataMap().putDouble(HIGH_TEMP, high);
-        putDataMapRequest.getDataMap().putByteArray(IMAGE, byteArray);
-        putDataMapRequest.getDataMap().putLong(TIMESTAMP, System.currentTimeMillis());
-
-
-        Wearable.DataApi.putDataItem(mGoogleApiClient, putDataMapRequest.asPutDataRequest())
-                .setResultCallback(new ResultCallback<DataApi.DataItemResult>() {
-                    @Override
-                    public void onResult(DataApi.DataItemResult dataItemResult) {
-                        if (Log.isLoggable(this.getClass().getSimpleName(), Log.DEBUG)) {
-                            Log.d(this.getClass().getSimpleName(),
-                                    "putDataItem result status: " + dataItemResult.getStatus());
-                        }
-                    }
-                });
     }
 
     @Override
-    public void onConnected(Bundle bundle) {
-
-    }
-
-    @Override
-    public void onConnectionSuspended(int i) {
-
+    public void onMessageReceived(MessageEvent messageEvent) {
+        // The phone's reply to a request of LoadWeatherService.
+        if(!messageEvent.getPath().equals(WEAR_PATH))
+        {
+            return;
+        }
+        Log.i(this.getClass().getSimpleName(), "Weather received");
+        store(this, DataMap.fromByteArray(messageEvent.getData()));
     }
 
-    @Override
-    public void onConnectionFailed(ConnectionResult connectionResult) {
+    /**
+     * Stores the weather of a data map published by the phone.
+     */
+    static void store(Context context, DataMap dataMap) {
+        double low = dataMap.getDouble(LOW_TEMP);
+        double high = dataMap.getDouble(HIGH_TEMP);
+        int weatherId = dataMap.getInt(WEATHER_ID, -1);
+        long date = dataMap.getLong(DATE);
 
+        WeatherStore.getInstance(context).set(low, high, weatherId, date);
     }
 }
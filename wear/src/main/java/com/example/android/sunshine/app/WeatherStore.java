@@ -0,0 +1,124 @@
+package com.example.android.sunshine.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+
+import java.util.ArrayList;
+
+/**
+ * The latest weather received from the phone, shared in process between
+ * {@link WeatherReceiverService}, which stores it, and the watch face, which listens for it.
+ * It is kept in preferences too, so the face can show it again after the process is restarted;
+ * nothing is written back to the Data Layer.
+ */
+class WeatherStore {
+
+    interface Listener {
+        /**
+         * Called on the main thread when newer weather was stored.
+         */
+        void onWeatherChanged(WeatherStore store);
+    }
+
+    private static final String PREFS_NAME = "weather";
+    private static final String LOW_TEMP = "low";
+    private static final String HIGH_TEMP = "high";
+    private static final String WEATHER_ID = "weather_id";
+    private static final String DATE = "date";
+
+    private static WeatherStore sInstance;
+
+    private final SharedPreferences mPrefs;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    // Only touched on the main thread.
+    private final ArrayList<Listener> mListeners = new ArrayList<>();
+
+    // Guarded by this.
+    private double mLow;
+    private double mHigh;
+    private int mWeatherId;
+    private long mDate;
+
+    private final Runnable mNotifyListeners = new Runnable() {
+        @Override
+        public void run() {
+            for (int i = mListeners.size() - 1; i >= 0; i--) {
+                mListeners.get(i).onWeatherChanged(WeatherStore.this);
+            }
+        }
+    };
+
+    static synchronized WeatherStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WeatherStore(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private WeatherStore(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        mLow = Double.longBitsToDouble(mPrefs.getLong(LOW_TEMP, 0));
+        mHigh = Double.longBitsToDouble(mPrefs.getLong(HIGH_TEMP, 0));
+        mWeatherId = mPrefs.getInt(WEATHER_ID, -1);
+        mDate = mPrefs.getLong(DATE, 0);
+    }
+
+    /**
+     * Stores the weather of a day, unless weather of a later day is already stored.
+     */
+    void set(double low, double high, int weatherId, long date) {
+        synchronized (this) {
+            if (date < mDate) {
+                return;
+            }
+            mLow = low;
+            mHigh = high;
+            mWeatherId = weatherId;
+            mDate = date;
+        }
+        mPrefs.edit()
+                .putLong(LOW_TEMP, Double.doubleToRawLongBits(low))
+                .putLong(HIGH_TEMP, Double.doubleToRawLongBits(high))
+                .putInt(WEATHER_ID, weatherId)
+                .putLong(DATE, date)
+                .apply();
+        mMainHandler.removeCallbacks(mNotifyListeners);
+        mMainHandler.post(mNotifyListeners);
+    }
+
+    synchronized double getLow() {
+        return mLow;
+    }
+
+    synchronized double getHigh() {
+        return mHigh;
+    }
+
+    synchronized int getWeatherId() {
+        return mWeatherId;
+    }
+
+    /**
+     * @return the day of the stored forecast as the phone's local midnight of that day, or 0 if
+     * there is none.
+     */
+    synchronized long getDate() {
+        return mDate;
+    }
+
+    /**
+     * Must be called on the main thread.
+     */
+    void addListener(Listener listener) {
+        mListeners.add(listener);
+    }
+
+    /**
+     * Must be called on the main thread.
+     */
+    void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+}